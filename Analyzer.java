@@ -0,0 +1,286 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Annotate games with the engine's opinion of every move.
+ *
+ *  Games in the format written by Tournament are read one by one and
+ *  replayed with ChessGame. The position before every move goes to a bounded
+ *  queue served by a pool of workers, each with its own engine, so reading
+ *  waits when the workers fall behind. Only so many games can be in progress
+ *  at once, and they are written out in the order they were read. A position
+ *  seen in more than one game is searched only once, through a PositionCache
+ *  of evaluations.
+ *
+ *  For every move, the output has the score before it, the best move, and
+ *  whether the move was an inaccuracy, a mistake or a blunder by how much
+ *  it lost against the best move.
+ */
+class Analyzer {
+	// Centipawns lost by a move to call it so
+	private static final int BLUNDER = 300;
+	private static final int MISTAKE = 100;
+	private static final int INACCURACY = 50;
+	private static final int MAX_SCORE = 1000; //< Mate scores count as this much
+	private static final int QUEUE_SIZE = 1024;
+	private static final int CACHE_SIZE = 1 << 20;
+
+	/** A game in progress */
+	private static class Game {
+		final int index;
+		final int[] moves;
+		final Position[] positions; //< Before each move, and the final one
+		final int[] scores;         //< For the player to move
+		final int[] best;
+		final boolean[] failed;     //< The evaluation threw, so there is no score
+		final AtomicInteger remaining;
+
+		Game(int index, int[] moves, Position[] positions) {
+			this.index = index;
+			this.moves = moves;
+			this.positions = positions;
+			scores = new int[positions.length];
+			best = new int[positions.length];
+			failed = new boolean[positions.length];
+			remaining = new AtomicInteger(positions.length);
+		}
+	}
+
+	/** A position of a game to evaluate */
+	private static class Task {
+		final Game game;
+		final int ply;
+
+		Task(Game game, int ply) {
+			this.game = game;
+			this.ply = ply;
+		}
+	}
+	private static final Task DONE = new Task(null, -1); //< Tells a worker to stop
+
+	private final int depth;
+	private final int threads;
+	private final BlockingQueue<Task> queue = new ArrayBlockingQueue<Task>(QUEUE_SIZE);
+	private final Semaphore inProgress;
+	private final PositionCache<CompletableFuture<int[]>> evaluations =
+		new PositionCache<CompletableFuture<int[]>>(CACHE_SIZE); //< Score and best move
+	private final TreeMap<Integer, Game> finished = new TreeMap<Integer, Game>(); //< Waiting for earlier games
+	private final LongAdder positions = new LongAdder();
+	private final LongAdder searched = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private int unlawful; //< Games cut short at an unlawful move
+	private int nextGame;
+	private int peak; //< Most games in progress at once
+	private BufferedWriter out;
+	private PawnTable pawns;
+
+	public Analyzer(int depth, int threads) {
+		this.depth = depth;
+		this.threads = threads;
+		inProgress = new Semaphore(threads * 4);
+	}
+
+	/** \returns An engine for a worker, which shares the pawn table with the others */
+	Engine NewEngine(PawnTable pawns) {
+		return new Engine(depth, pawns);
+	}
+
+	/** Take positions from the queue and evaluate them with the engine until told to stop */
+	private void Work(Engine engine) {
+		ChessGame game = ChessGame.Create();
+		try {
+			for (Task t = queue.take(); t != DONE; t = queue.take()) {
+				Evaluate(t, game, engine);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Evaluate a position unless it was, or is being, evaluated for another game.
+	 *  A position that cannot be evaluated gets no score, and is marked failed
+	 *  for every game waiting on it, so that the games are still written.
+	 */
+	private void Evaluate(Task t, ChessGame game, Engine engine) {
+		Position p = t.game.positions[t.ply];
+		try {
+			CompletableFuture<int[]> f = new CompletableFuture<int[]>();
+			CompletableFuture<int[]> old = evaluations.PutIfAbsent(p.Hash(), f);
+			int[] e = null;
+			if (old != null) {
+				e = old.join();
+			} else {
+				try {
+					game.Load(p);
+					int best = engine.BestMove(game);
+					e = new int[] {engine.Score(), best};
+					searched.increment();
+				} catch (RuntimeException ex) {
+					System.err.println("Cannot evaluate ply " + (t.ply + 1) + " of game " + t.game.index + ": " + ex);
+				} finally {
+					f.complete(e); // null if failed
+				}
+			}
+			if (e == null) {
+				t.game.failed[t.ply] = true;
+				t.game.best[t.ply] = -1;
+				failures.increment();
+			} else {
+				t.game.scores[t.ply] = e[0];
+				t.game.best[t.ply] = e[1];
+			}
+			positions.increment();
+		} finally {
+			if (t.game.remaining.decrementAndGet() == 0) {
+				Finish(t.game);
+			}
+		}
+	}
+
+	/** Write out the finished game, and those after it that were waiting */
+	private synchronized void Finish(Game g) {
+		finished.put(g.index, g);
+		while (! finished.isEmpty() && finished.firstKey() == nextGame) {
+			try {
+				Write(finished.pollFirstEntry().getValue());
+			} catch (IOException e) {
+				System.err.println("Cannot write game " + nextGame + ": " + e.getMessage());
+			}
+			++nextGame;
+			inProgress.release();
+		}
+	}
+
+	/** \returns The score limited to MAX_SCORE either way */
+	private static int Clamp(int score) {
+		return Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+	}
+
+	/** Write a line per move: game, ply, move, score for white, best move and the verdict */
+	private void Write(Game g) throws IOException {
+		for (int i = 0; i < g.moves.length; ++i) {
+			int m = g.moves[i];
+			// The score after the move is for the opponent
+			int loss = (m == g.best[i] || g.failed[i + 1]) ? 0 : Clamp(g.scores[i]) + Clamp(g.scores[i + 1]);
+			String verdict = (g.failed[i]) ? "error" : (loss >= BLUNDER) ? "blunder" : (loss >= MISTAKE) ? "mistake" :
+			                 (loss >= INACCURACY) ? "inaccuracy" : "";
+			int white = (g.positions[i].WhiteMove()) ? g.scores[i] : -g.scores[i];
+			String best = (g.best[i] < 0) ? "-" : PackedMove.Input(g.best[i]).replace(" ", "") + PackedMove.PromoteTo(g.best[i]);
+			out.write(String.format("%d\t%d\t%s%s\t%+d\t%s\t%s", g.index, i + 1,
+			                        PackedMove.Input(m).replace(" ", ""), PackedMove.PromoteTo(m), white, best, verdict));
+			out.newLine();
+		}
+		out.flush();
+	}
+
+	/** Replay a game from moves like "e2e4 e7e5", stopping at an unlawful move
+	 *  and counting the game as such
+	 */
+	private Game Replay(int index, String moves) {
+		ChessGame game = ChessGame.Create();
+		String[] tokens = moves.trim().split("\\s+");
+		int[] played = new int[tokens.length];
+		Position[] seen = new Position[tokens.length + 1];
+		int n = 0;
+		seen[0] = game.CurrentPosition();
+		for (String token : tokens) {
+			int m = PackedMove.Parse(token);
+			if (m < 0 || ! game.LegalMoves().Contains(m)) {
+				++unlawful;
+				break;
+			}
+			game.Play(m);
+			played[n++] = m;
+			seen[n] = game.CurrentPosition();
+		}
+		return new Game(index, java.util.Arrays.copyOf(played, n), java.util.Arrays.copyOf(seen, n + 1));
+	}
+
+	/** Analyze the games written by Tournament, writing the analysis of each
+	 *  game in the order read
+	 */
+	void Run(Reader in, Writer analysis) throws IOException, InterruptedException {
+		out = new BufferedWriter(analysis);
+		Thread[] workers = new Thread[threads];
+		pawns = new PawnTable(Engine.PAWN_TABLE_BITS); // Shared by all workers
+		for (int i = 0; i < threads; ++i) {
+			final Engine engine = NewEngine(pawns);
+			workers[i] = new Thread(() -> Work(engine));
+			workers[i].start();
+		}
+		int games = 0;
+		try (BufferedReader reader = new BufferedReader(in)) {
+			for (String line; (line = reader.readLine()) != null; ) {
+				String[] fields = line.split("\t");
+				if (fields.length < 7) { continue; }
+				inProgress.acquire();
+				synchronized (this) {
+					peak = Math.max(peak, games + 1 - nextGame);
+				}
+				Game g = Replay(games++, fields[6]);
+				for (int ply = 0; ply < g.positions.length; ++ply) {
+					queue.put(new Task(g, ply));
+				}
+			}
+		}
+		for (int i = 0; i < threads; ++i) {
+			queue.put(DONE);
+		}
+		for (Thread w : workers) {
+			w.join();
+		}
+		out.close();
+	}
+
+	/** Analyze the games of a file written by Tournament */
+	public void Run(String in, String outFile) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Run(new FileReader(in), new FileWriter(outFile));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d games (%d with unlawful moves), %d positions in %.1f s (%.0f positions/s) with %d threads\n",
+		                  nextGame, unlawful, positions.sum(), seconds, positions.sum() / seconds, threads);
+		if (failures.sum() > 0) {
+			System.out.printf("%d positions could not be evaluated\n", failures.sum());
+		}
+		System.out.printf("%d positions searched, the others shared: %s\n", searched.sum(), evaluations.Stats());
+		System.out.printf("at most %d games in progress\n", peak);
+		System.out.println("pawn table: " + pawns.Stats());
+	}
+
+	/** \returns Number of positions of all games, evaluated or shared */
+	long Positions() { return positions.sum(); }
+
+	/** \returns Number of positions searched by the engines */
+	long Searched() { return searched.sum(); }
+
+	/** \returns Number of positions of all games that could not be evaluated */
+	long Failures() { return failures.sum(); }
+
+	/** \returns Number of games cut short at an unlawful move */
+	int Unlawful() { return unlawful; }
+
+	/** \returns Most games in progress at once, no more than 4 per thread */
+	int Peak() { return peak; }
+
+	/** Analyze games.
+	 *  Usage: java Analyzer [game file] [output file] [depth] [threads]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String in = (args.length > 0) ? args[0] : "games.txt";
+		String outFile = (args.length > 1) ? args[1] : "analysis.txt";
+		int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		new Analyzer(depth, threads).Run(in, outFile);
+	}
+}
@@ -0,0 +1,125 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Build an OpeningBook from games in the format written by Tournament.
+ *
+ *  Each game is replayed with ChessGame for the first plies. For every
+ *  position and move, it counts the games and the score of the player who
+ *  made the move: 2 for a win and 1 for a draw. The score becomes the weight
+ *  of the move in the book and the number of games goes to the learn field.
+ */
+class BookBuilder {
+	private final int plies;
+	private final HashMap<Long, HashMap<Integer, int[]>> stats = new HashMap<Long, HashMap<Integer, int[]>>(); //< Games and score
+	private int games;
+
+	/** Create a builder that takes the given number of plies from each game */
+	public BookBuilder(int plies) {
+		this.plies = plies;
+	}
+
+	/** Add a game: moves like "e2e4 e7e5", and result 1 for white wins, -1 for black wins, 0 for draw.
+	 *  \returns false if a move is not lawful; the moves before it are still added
+	 */
+	public boolean Add(String moves, int result) {
+		ChessGame game = ChessGame.Create();
+		++games;
+		String[] tokens = moves.trim().split("\\s+");
+		for (int i = 0; i < plies && i < tokens.length; ++i) {
+			int m = PackedMove.Parse(tokens[i]);
+			if (m < 0 || ! game.LegalMoves().Contains(m)) { return false; }
+			int score = (result == 0) ? 1 : ((result > 0) == game.WhiteMove()) ? 2 : 0;
+			long hash = game.PolyglotKey();
+			HashMap<Integer, int[]> moveStats = stats.get(hash);
+			if (moveStats == null) {
+				moveStats = new HashMap<Integer, int[]>();
+				stats.put(hash, moveStats);
+			}
+			int key = OpeningBook.ToPolyglot(m, game.Board());
+			int[] s = moveStats.get(key);
+			if (s == null) {
+				s = new int[2];
+				moveStats.put(key, s);
+			}
+			s[0] += 1;
+			s[1] += score;
+			game.Play(m);
+		}
+		return true;
+	}
+
+	/** Add the games in a file written by Tournament
+	 *  \returns Number of games that could not be replayed in full
+	 */
+	public int AddFile(String file) throws IOException {
+		int bad = 0;
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			for (String line; (line = in.readLine()) != null; ) {
+				String[] fields = line.split("\t");
+				if (fields.length < 7) { continue; }
+				int result = fields[4].equals("1-0") ? 1 : fields[4].equals("0-1") ? -1 : 0;
+				if (! Add(fields[6], result)) { ++bad; }
+			}
+		}
+		return bad;
+	}
+
+	/** Write the book, sorted by position hash and then by weight.
+	 *  \returns Number of entries written
+	 */
+	public int Write(String file) throws IOException {
+		List<Long> keys = new ArrayList<Long>(stats.keySet());
+		keys.sort(Long::compareUnsigned);
+		// Weights are 16 bits, scale them down if needed
+		long max = 1;
+		for (HashMap<Integer, int[]> moveStats : stats.values()) {
+			for (int[] s : moveStats.values()) {
+				max = Math.max(max, s[1]);
+			}
+		}
+		double scale = Math.min(1.0, 65535.0 / max);
+		int n = 0;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (long key : keys) {
+				List<Map.Entry<Integer, int[]>> moves = new ArrayList<Map.Entry<Integer, int[]>>(stats.get(key).entrySet());
+				moves.sort((a, b) -> (b.getValue()[1] != a.getValue()[1]) ? b.getValue()[1] - a.getValue()[1]
+				                                                            : a.getKey() - b.getKey());
+				for (Map.Entry<Integer, int[]> e : moves) {
+					out.writeLong(key);
+					out.writeShort(e.getKey());
+					out.writeShort((int)Math.ceil(e.getValue()[1] * scale));
+					out.writeInt(e.getValue()[0]);
+					++n;
+				}
+			}
+		}
+		return n;
+	}
+
+	/** Build a book from Tournament game files.
+	 *  Usage: java BookBuilder [book file] [plies] [game file]...
+	 */
+	public static void main(String[] args) throws IOException {
+		String book = (args.length > 0) ? args[0] : "book.bin";
+		int plies = (args.length > 1) ? Integer.parseInt(args[1]) : 24;
+		BookBuilder builder = new BookBuilder(plies);
+		int bad = 0;
+		for (int i = 2; i < args.length; ++i) {
+			bad += builder.AddFile(args[i]);
+		}
+		if (args.length <= 2) {
+			bad += builder.AddFile("games.txt");
+		}
+		int n = builder.Write(book);
+		System.out.printf("%d games (%d with unlawful moves), %d positions, %d entries written to %s\n",
+		                  builder.games, bad, builder.stats.size(), n, book);
+	}
+}
@@ -13,6 +13,26 @@
 class ChessBoard {
 	private Piece[][] board = new Piece[8][8]; //< The chess board
 	private boolean gameEnd;
+	private long hash; //< Zobrist hash of the pieces on the board
+	private long pawnHash; //< Zobrist hash of the pawns only
+	private long whitePawns, blackPawns; //< Pawns by file, bit 8j+i for rank i, file j
+	private long[] squares = new long[4]; //< The board packed as 4 bits per square
+
+	/** Create a chess board, to be initialized before use */
+	public ChessBoard() {}
+
+	/** Create a copy of another chess board */
+	public ChessBoard(ChessBoard b) {
+		for (int i = 0; i < 8; ++i) {
+			board[i] = b.board[i].clone();
+		}
+		gameEnd = b.gameEnd;
+		hash = b.hash;
+		pawnHash = b.pawnHash;
+		whitePawns = b.whitePawns;
+		blackPawns = b.blackPawns;
+		squares = b.squares.clone();
+	}
 
 	/** Print the Chess board: Whites are in uppercases, black are lowercases */
 	public void Print() {
@@ -31,6 +51,41 @@ class ChessBoard {
 	/** \returns whether this game finished */
 	public boolean End() { return gameEnd; }
 
+	/** \returns The Zobrist hash of the pieces on the board, maintained incrementally */
+	public long Hash() { return hash; }
+
+	/** \returns The Zobrist hash of the pawns on the board, which changes
+	 *  only on pawn moves, captures of pawns and promotions
+	 */
+	public long PawnHash() { return pawnHash; }
+
+	/** \returns The pawns of a side by file: byte j has bit i set for a pawn
+	 *  at rank i, file j
+	 */
+	public long Pawns(boolean white) { return (white) ? whitePawns : blackPawns; }
+
+	/** \returns whether the piece counts towards the pawn hash */
+	private static boolean IsPawn(Piece p) {
+		return p == Piece.WPAWN || p == Piece.BPAWN;
+	}
+
+	/** \returns Squares 16k to 16k+15 of the board, each as 4 bits of Piece ordinal */
+	public long Squares(int k) { return squares[k]; }
+
+	/** Put a piece at rank i, file j, and update the hashes, pawns and packed squares */
+	private void Set(int i, int j, Piece p) {
+		int sq = i * 8 + j;
+		int shift = (sq & 15) * 4;
+		hash ^= Zobrist.PieceKey(board[i][j], i, j) ^ Zobrist.PieceKey(p, i, j);
+		if (IsPawn(board[i][j])) { pawnHash ^= Zobrist.PieceKey(board[i][j], i, j); }
+		if (IsPawn(p)) { pawnHash ^= Zobrist.PieceKey(p, i, j); }
+		long bit = 1L << (j * 8 + i);
+		whitePawns = (p == Piece.WPAWN) ? whitePawns | bit : whitePawns & ~bit;
+		blackPawns = (p == Piece.BPAWN) ? blackPawns | bit : blackPawns & ~bit;
+		squares[sq >> 4] = (squares[sq >> 4] & ~(0xFL << shift)) | ((long)p.ordinal() << shift);
+		board[i][j] = p;
+	}
+
 	/** \returns The piece at the specified location of the chessboard */
 	public Piece GetPieceAt(int i, int j) {
 		return board[i][j];
@@ -57,14 +112,30 @@ class ChessBoard {
 		if (Character.toLowerCase(captured.GetCode()) == 'k') {
 			gameEnd = true;
 		};
-		board[to.Rank()][to.File()] = board[from.Rank()][from.File()];
-		board[from.Rank()][from.File()] = Piece.NOTHING;
+		Set(to.Rank(), to.File(), board[from.Rank()][from.File()]);
+		Set(from.Rank(), from.File(), Piece.NOTHING);
 		return captured;
 	}
 
+	/** Take back a move: The piece at `to' returns to `from', and the captured
+	 *  piece is put back to `to'
+	 */
+	public void Unmove(Location from, Location to, Piece captured) {
+		if (Character.toLowerCase(captured.GetCode()) == 'k') {
+			gameEnd = false;
+		};
+		Set(from.Rank(), from.File(), board[to.Rank()][to.File()]);
+		Set(to.Rank(), to.File(), captured);
+	}
+
 	/** Remove a piece */
 	public void RemoveAt(Location loc) {
-		board[loc.Rank()][loc.File()] = Piece.NOTHING;
+		PlaceAt(loc, Piece.NOTHING);
+	}
+
+	/** Put a piece on a square, replacing whatever was there */
+	public void PlaceAt(Location loc, Piece p) {
+		Set(loc.Rank(), loc.File(), p);
 	}
 
 	/** Promote a pawn to a queen, rook, bishop, or knight */
@@ -74,25 +145,25 @@ class ChessBoard {
 		// Replace the piece at the chessboard
 		if (board[loc.Rank()][loc.File()].IsWhite()) {
 			switch (code) {
-				case 'q': board[loc.Rank()][loc.File()] = Piece.WQUEEN;
+				case 'q': PlaceAt(loc, Piece.WQUEEN);
 				          return true;
-				case 'r': board[loc.Rank()][loc.File()] = Piece.WROOK;
+				case 'r': PlaceAt(loc, Piece.WROOK);
 				          return true;
-				case 'n': board[loc.Rank()][loc.File()] = Piece.WKNIGHT;
+				case 'n': PlaceAt(loc, Piece.WKNIGHT);
 				          return true;
-				case 'b': board[loc.Rank()][loc.File()] = Piece.WBISHOP;
+				case 'b': PlaceAt(loc, Piece.WBISHOP);
 				          return true;
 				default: return false;
 			}
 		} else {
 			switch (code) {
-				case 'q': board[loc.Rank()][loc.File()] = Piece.BQUEEN;
+				case 'q': PlaceAt(loc, Piece.BQUEEN);
 				          return true;
-				case 'r': board[loc.Rank()][loc.File()] = Piece.BROOK;
+				case 'r': PlaceAt(loc, Piece.BROOK);
 				          return true;
-				case 'n': board[loc.Rank()][loc.File()] = Piece.BKNIGHT;
+				case 'n': PlaceAt(loc, Piece.BKNIGHT);
 				          return true;
-				case 'b': board[loc.Rank()][loc.File()] = Piece.BBISHOP;
+				case 'b': PlaceAt(loc, Piece.BBISHOP);
 				          return true;
 				default: return false;
 			}
@@ -142,32 +213,67 @@ class ChessBoard {
 		board[7][5] = Piece.BBISHOP;
 		board[7][6] = Piece.BKNIGHT;
 		board[7][7] = Piece.BROOK;
+		Rehash();
 	}
 
-	/** Return the end-game of Kasparov vs the world for unit test purpose */
-	public static ChessBoard KasparovEnd() {
-		ChessBoard cb = new ChessBoard();
+	/** Recompute the hashes, pawns and packed squares after the board is set up directly */
+	private void Rehash() {
+		hash = 0;
+		pawnHash = 0;
+		whitePawns = 0;
+		blackPawns = 0;
+		squares = new long[4];
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				hash ^= Zobrist.PieceKey(board[i][j], i, j);
+				if (IsPawn(board[i][j])) { pawnHash ^= Zobrist.PieceKey(board[i][j], i, j); }
+				if (board[i][j] == Piece.WPAWN) { whitePawns |= 1L << (j * 8 + i); }
+				if (board[i][j] == Piece.BPAWN) { blackPawns |= 1L << (j * 8 + i); }
+				squares[i / 2] |= (long)board[i][j].ordinal() << ((i % 2 * 8 + j) * 4);
+			}
+		}
+	}
+
+	/** Remove all pieces from the chessboard */
+	public void Clear() {
 		for (int i = 0; i < 8; ++i) {
 			for (int j = 0; j < 8; ++j) {
-				cb.board[i][j] = Piece.NOTHING;
+				board[i][j] = Piece.NOTHING;
 			}
 		}
+		gameEnd = false;
+		Rehash();
+	}
+
+	/** Set up the chessboard as in a position snapshot */
+	public void Load(Position p) {
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				board[i][j] = p.GetPieceAt(i, j);
+			}
+		}
+		gameEnd = false;
+		Rehash();
+	}
+
+	/** Return the end-game of Kasparov vs the world for unit test purpose */
+	public static ChessBoard KasparovEnd() {
+		ChessBoard cb = new ChessBoard();
+		cb.Clear();
 		cb.board[0][2] = Piece.BKING;
 		cb.board[1][5] = Piece.WQUEEN;
 		cb.board[3][3] = Piece.BPAWN;
 		cb.board[3][4] = Piece.BQUEEN;
 		cb.board[5][5] = Piece.WKING;
 		cb.board[6][6] = Piece.WPAWN;
+		cb.Rehash();
 		return cb;
 	}
 
 	/** Verify if this chess board has the exact appearance with another one */
 	public boolean Equals(ChessBoard b) {
-		for (int i = 0; i < 8; ++i) {
-			for (int j = 0; j < 8; ++j) {
-				if (board[i][j] != b.board[i][j]) { return false; }
-			}
-		}
-		return true;
+		return hash == b.hash &&
+		       squares[0] == b.squares[0] && squares[1] == b.squares[1] &&
+		       squares[2] == b.squares[2] && squares[3] == b.squares[3];
 	}
 }
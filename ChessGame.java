@@ -20,6 +20,18 @@ class ChessGame {
 	private boolean inCheck;
 	private Location enPassantLocation;
 	private Piece captured;
+	private int halfmoveClock;   //< Moves since the last capture or pawn move
+	private History history;
+	private MoveRecord scratch = new MoveRecord(); //< For trying out a move
+	private volatile Position position; //< Snapshot after the last move, for other threads
+
+	// Number of moves that can be taken back
+	private final int HISTORY_SIZE = 128;
+	// Megabytes to remember the lawful moves of positions, unless given by
+	// the system property movecache, e.g. java -Dmovecache=64 Tournament
+	private static final int MOVE_CACHE_MB = 12;
+	private static PositionCache<MoveList> moveCache =
+		PositionCache.OfMegabytes(Integer.getInteger("movecache", MOVE_CACHE_MB)); //< Shared by all games
 
 	// Error code of invalid inputs
 	private final int INVALID_LOCATION = 1;
@@ -27,6 +39,7 @@ class ChessGame {
 	private final int INVALID_PIECE = 3;
 	private final int INVALID_DESTINATION = 4;
 	private final int INVALID_MOVE = 5;
+	private final int KING_EXPOSED = 6;
 
 	/** \returns The location has a piece belong to the current player */
 	private boolean ValidFrom(Location loc) {
@@ -86,6 +99,7 @@ class ChessGame {
 		/* May advance 2 squares on its first move provided both squares are unoccupied */
 		if (Math.abs(from.Rank() - to.Rank()) == 2) {
 			if (from.File() != to.File()) { return false; }
+			if (from.Rank() != ((whiteMove) ? 1 : 6)) { return false; }
 			if ((whiteMove) ? whitePawnMoved[to.File()] : blackPawnMoved[to.File()]) {
 				return false;
 			}
@@ -123,19 +137,27 @@ class ChessGame {
 			/* The king must not been moved */
 			if (whiteMove && whiteKingMoved) { return false; };
 			if (!whiteMove && blackKingMoved) { return false; };
+			if (from.File() != 4 || from.Rank() != ((whiteMove) ? 0 : 7)) { return false; }
 			/* The rook must not been moved */
 			Location delta = new Location(0,0); // mute compiler
+			int rookFile;
 			if (to.File() == 2) { // King from E to C
 				if (whiteMove && whiteARookMoved) { return false; };
 				if (!whiteMove && blackARookMoved) { return false; };
 				delta = new Location(-1,0);
+				rookFile = 0;
 			} else if (to.File() == 6) { // King from E to G
 				if (whiteMove && whiteHRookMoved) { return false; };
 				if (!whiteMove && blackHRookMoved) { return false; };
 				delta = new Location(1,0);
+				rookFile = 7;
+			} else {
+				return false;
 			}
+			Location rook = new Location(rookFile, from.Rank());
+			if (cb.GetPieceAt(rook) != ((whiteMove) ? Piece.WROOK : Piece.BROOK)) { return false; }
 			/* Nothing shall be between the king and rook */
-			for (Location i = Location.Add(from, delta); ! i.IsEqual(to); i = Location.Add(i, delta)) {
+			for (Location i = Location.Add(from, delta); ! i.IsEqual(rook); i = Location.Add(i, delta)) {
 				if (!cb.EmptyAt(i)) { return false; }
 			}
 			/* King must not in check nor to be in check, nor pass through the square under attack */
@@ -200,9 +222,81 @@ class ChessGame {
 		if (!ValidTo(to)) { return INVALID_DESTINATION; }
 		/* Verify the move follows the rule */
 		if (!ValidMove(from, to)) { return INVALID_MOVE; }
+		/* Verify the move does not leave the king under attack */
+		if (!LegalMoves().Contains(from, to)) { return KING_EXPOSED; }
 		return 0;
 	}
 
+	/** \returns The lawful moves of the player to move, from the cache if possible */
+	MoveList LegalMoves() {
+		long h = PositionHash();
+		MoveList ml = moveCache.Get(h);
+		if (ml == null) {
+			ml = GenerateMoves();
+			moveCache.Put(h, ml);
+		}
+		return ml;
+	}
+
+	/** Find all lawful moves of the player to move by trying every piece on
+	 *  every square, and dropping those that leave the king under attack
+	 */
+	MoveList GenerateMoves() {
+		short[] moves = new short[256]; // more than any position can have
+		int n = 0;
+		for (int i = 0; i < 64; ++i) {
+			Location from = new Location(i % 8, i / 8);
+			if (!ValidFrom(from)) { continue; }
+			boolean pawn = (Character.toLowerCase(cb.GetPieceAt(from).GetCode()) == 'p');
+			for (int j = 0; j < 64; ++j) {
+				Location to = new Location(j % 8, j / 8);
+				if (!ValidTo(to) || !ValidMove(from, to) || !Lawful(from, to)) { continue; }
+				if (pawn && (to.Rank() == 0 || to.Rank() == 7)) {
+					moves[n++] = PackedMove.Pack(from, to, 'q');
+					moves[n++] = PackedMove.Pack(from, to, 'r');
+					moves[n++] = PackedMove.Pack(from, to, 'b');
+					moves[n++] = PackedMove.Pack(from, to, 'n');
+				} else {
+					moves[n++] = PackedMove.Pack(from, to, ' ');
+				}
+			}
+		}
+		int status = (n > 0) ? MoveList.ONGOING : (inCheck ? MoveList.CHECKMATE : MoveList.STALEMATE);
+		return new MoveList(java.util.Arrays.copyOf(moves, n), status);
+	}
+
+	/** \returns The move does not leave the player's own king under attack */
+	private boolean Lawful(Location from, Location to) {
+		scratch.from = from;
+		scratch.to = to;
+		Save(scratch);
+		MakeMove(from, to, "q");
+		whiteMove = ! whiteMove;
+		boolean exposed = GivesCheck(); // whether the opponent can take the king now
+		Unplay(scratch);
+		return !exposed;
+	}
+
+	/** Print the lawful moves of the piece at the specified square */
+	private void Hint(String square) {
+		square = square.trim().toLowerCase();
+		if (! square.matches("[a-h][1-8]")) {
+			console.printf("invalid location format\n");
+			return;
+		}
+		Location from = new Location(square.charAt(0) - 'a', square.charAt(1) - '1');
+		MoveList ml = LegalMoves();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < ml.Count(); ++i) {
+			int m = ml.Get(i);
+			// List each destination once, though a pawn may promote to different pieces
+			if (PackedMove.From(m).IsEqual(from) && !PackedMove.PromoteTo(m).matches("[rbn]")) {
+				sb.append(" ").append(PackedMove.Square(m));
+			}
+		}
+		console.printf("%s can move to:%s\n", square, (sb.length() > 0) ? sb.toString() : " nowhere");
+	}
+
 	/** \returns if the provided location is under attack by the opponent  */
 	private boolean UnderAttack(Location loc) {
 		Location nextFile = new Location(1,0);
@@ -210,12 +304,28 @@ class ChessGame {
 		for (;cursor.Rank() < 8; cursor = new Location(0, cursor.Rank() + 1)) {
 			for (; cursor.File() < 8; cursor = Location.Add(cursor, nextFile)) {
 				if (cb.EmptyAt(cursor) ||
-				    cb.GetPieceAt(cursor).IsWhite() == whiteMove) {
+				    cb.GetPieceAt(cursor).IsWhite() == whiteMove ||
+				    cursor.IsEqual(loc)) {
 					// Check next square if it is empty or belong to same player
 					continue;
-				} else if (ValidMove(cursor, loc)) {
-					// The piece in cursor belongs to the opponent, and it is a valid move
-					return true;
+				}
+				Piece p = cb.GetPieceAt(cursor);
+				int RankDelta = loc.Rank() - cursor.Rank();
+				int FileDelta = Math.abs(loc.File() - cursor.File());
+				switch (Character.toLowerCase(p.GetCode())) {
+					case 'p':
+						// Pawns attack diagonally forward, even an empty square
+						if (RankDelta == ((p.IsWhite()) ? 1 : -1) && FileDelta == 1) { return true; }
+						break;
+					case 'k':
+						// The opponent's king cannot castle to attack
+						if (Math.abs(RankDelta) <= 1 && FileDelta <= 1) { return true; }
+						break;
+					default:
+						if (ValidMove(cursor, loc)) {
+							// The piece in cursor belongs to the opponent, and it is a valid move
+							return true;
+						}
 				}
 			}
 		}
@@ -244,8 +354,10 @@ class ChessGame {
 		return king;
 	}
 
-	/** \returns whether the current player made a checkmate */
-	private boolean Checkmate() {
+	/** \returns whether the current player checks the opponent's king.
+	 *  Whether it is a checkmate is decided by LegalMoves().
+	 */
+	private boolean GivesCheck() {
 		Location nextFile = new Location(1,0);
 		Location cursor = new Location(0,0);
 		Location king = OpponentKing();
@@ -262,11 +374,81 @@ class ChessGame {
 		return false;
 	}
 
-	/** Parse the input and check if the move is good.
-	 *  \returns 0 if the move is good, or an error code otherwise
+	/** \returns The hash of the position, including the player to move, the
+	 *  castling rights and en passant. As in Polyglot opening books, castling
+	 *  counts by the rights left rather than the pieces moved, and en passant
+	 *  only if a pawn is there to capture.
+	 */
+	long PositionHash() {
+		long h = cb.Hash();
+		if (whiteMove) { h ^= Zobrist.WhiteMoveKey(); }
+		if (!whiteKingMoved && !whiteHRookMoved) { h ^= Zobrist.CastlingKey(Zobrist.WHITE_SHORT); }
+		if (!whiteKingMoved && !whiteARookMoved) { h ^= Zobrist.CastlingKey(Zobrist.WHITE_LONG); }
+		if (!blackKingMoved && !blackHRookMoved) { h ^= Zobrist.CastlingKey(Zobrist.BLACK_SHORT); }
+		if (!blackKingMoved && !blackARookMoved) { h ^= Zobrist.CastlingKey(Zobrist.BLACK_LONG); }
+		int file = EnPassantFile();
+		if (file >= 0) { h ^= Zobrist.EnPassantKey(file); }
+		return h;
+	}
+
+	/** \returns The file of the pawn that may be captured en passant by the
+	 *  player to move, or -1 if no pawn is there to capture
+	 */
+	private int EnPassantFile() {
+		if (enPassantLocation == null) { return -1; }
+		Piece pawn = (whiteMove) ? Piece.WPAWN : Piece.BPAWN;
+		int i = enPassantLocation.Rank();
+		int j = enPassantLocation.File();
+		if ((j > 0 && cb.GetPieceAt(i, j - 1) == pawn) || (j < 7 && cb.GetPieceAt(i, j + 1) == pawn)) {
+			return j;
+		}
+		return -1;
+	}
+
+	/** \returns The hash of the position with the Polyglot keys, as the
+	 *  positions of Polyglot opening books are keyed
 	 */
-	private void MakeMove(String move) { MakeMove(move, ""); }
-	private void MakeMove(String move, String promoteTo) {
+	long PolyglotKey() {
+		long h = 0;
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				Piece p = cb.GetPieceAt(i, j);
+				if (p != Piece.NOTHING) { h ^= Polyglot.PieceKey(p, i, j); }
+			}
+		}
+		if (!whiteKingMoved && !whiteHRookMoved) { h ^= Polyglot.CastlingKey(Polyglot.WHITE_SHORT); }
+		if (!whiteKingMoved && !whiteARookMoved) { h ^= Polyglot.CastlingKey(Polyglot.WHITE_LONG); }
+		if (!blackKingMoved && !blackHRookMoved) { h ^= Polyglot.CastlingKey(Polyglot.BLACK_SHORT); }
+		if (!blackKingMoved && !blackARookMoved) { h ^= Polyglot.CastlingKey(Polyglot.BLACK_LONG); }
+		int file = EnPassantFile();
+		if (file >= 0) { h ^= Polyglot.EnPassantKey(file); }
+		if (whiteMove) { h ^= Polyglot.TurnKey(); }
+		return h;
+	}
+
+	/** \returns An immutable snapshot of the current position */
+	Position Snapshot() {
+		boolean[] castling = {whiteKingMoved, whiteARookMoved, whiteHRookMoved,
+		                      blackKingMoved, blackARookMoved, blackHRookMoved};
+		int state = Position.State(whiteMove, castling, whitePawnMoved, blackPawnMoved, enPassantLocation);
+		return new Position(cb, state, PositionHash());
+	}
+
+	/** \returns The position after the last move of the game. It can be read
+	 *  from any thread while the game goes on.
+	 */
+	Position CurrentPosition() { return position; }
+
+	/** \returns the reason the game is drawn by rule, or null if it is not */
+	String Draw() {
+		if (LegalMoves().Status() == MoveList.STALEMATE) { return "stalemate"; }
+		if (halfmoveClock >= 100) { return "fifty-move rule"; }
+		if (history.Repetitions(PositionHash(), halfmoveClock) >= 2) { return "threefold repetition"; }
+		return null;
+	}
+
+	/** Play a move that is known to be good and pass the turn to the opponent */
+	private void Play(String move, String promoteTo) {
 		String[] tokens = move.split("\\s+");
 		String fromStr = "", toStr = ""; // init to mute compiler
 		int tokensCount = 0;
@@ -282,6 +464,127 @@ class ChessGame {
 		}
 		Location from = new Location(fromStr.charAt(0) - 'a', fromStr.charAt(1) - '1');
 		Location to = new Location(toStr.charAt(0) - 'a', toStr.charAt(1) - '1');
+		MoveRecord r = history.Push();
+		r.from = from;
+		r.to = to;
+		Play(r, promoteTo);
+		position = Snapshot();
+	}
+
+	/** Play a lawful move packed as in PackedMove and keep it in the history */
+	void Play(int move) {
+		Play(move, history.Push());
+		position = Snapshot();
+	}
+
+	/** Play a lawful move packed as in PackedMove, saving the game state
+	 *  before it in the record for Unplay()
+	 */
+	void Play(int move, MoveRecord r) {
+		r.from = PackedMove.From(move);
+		r.to = PackedMove.To(move);
+		Play(r, PackedMove.PromoteTo(move));
+	}
+
+	/** Play the move in the record, saving the game state before it there */
+	private void Play(MoveRecord r, String promoteTo) {
+		Save(r);
+		MakeMove(r.from, r.to, promoteTo);
+		/* Remember the promotion, which may have been asked from the console */
+		Piece p = cb.GetPieceAt(r.to);
+		r.promoteTo = (p == r.moved) ? "" : String.valueOf(Character.toLowerCase(p.GetCode()));
+		/* Captures and pawn moves cannot be reversed */
+		if (captured != Piece.NOTHING || Character.toLowerCase(r.moved.GetCode()) == 'p') {
+			halfmoveClock = 0;
+		} else {
+			++halfmoveClock;
+		}
+		inCheck = GivesCheck();
+		whiteMove = ! whiteMove;
+	}
+
+	/** Save the board and the game state before the move in the record */
+	private void Save(MoveRecord r) {
+		r.moved = cb.GetPieceAt(r.from);
+		r.capturedAt = cb.GetPieceAt(r.to);
+		r.enPassantPawn = (enPassantLocation == null) ? Piece.NOTHING : cb.GetPieceAt(enPassantLocation);
+		r.hash = PositionHash();
+		System.arraycopy(whitePawnMoved, 0, r.whitePawnMoved, 0, 8);
+		System.arraycopy(blackPawnMoved, 0, r.blackPawnMoved, 0, 8);
+		r.whiteARookMoved = whiteARookMoved;
+		r.whiteHRookMoved = whiteHRookMoved;
+		r.whiteKingMoved = whiteKingMoved;
+		r.blackARookMoved = blackARookMoved;
+		r.blackHRookMoved = blackHRookMoved;
+		r.blackKingMoved = blackKingMoved;
+		r.inCheck = inCheck;
+		r.enPassantLocation = enPassantLocation;
+		r.captured = captured;
+		r.halfmoveClock = halfmoveClock;
+	}
+
+	/** Take back the last move.
+	 *  \returns false if there is no move to take back
+	 */
+	private boolean Undo() {
+		MoveRecord r = history.Pop();
+		if (r == null) { return false; }
+		Unplay(r);
+		position = Snapshot();
+		return true;
+	}
+
+	/** Take back the move in the record, which was the last one played */
+	void Unplay(MoveRecord r) {
+		/* Restore the game state */
+		whiteMove = ! whiteMove;
+		System.arraycopy(r.whitePawnMoved, 0, whitePawnMoved, 0, 8);
+		System.arraycopy(r.blackPawnMoved, 0, blackPawnMoved, 0, 8);
+		whiteARookMoved = r.whiteARookMoved;
+		whiteHRookMoved = r.whiteHRookMoved;
+		whiteKingMoved = r.whiteKingMoved;
+		blackARookMoved = r.blackARookMoved;
+		blackHRookMoved = r.blackHRookMoved;
+		blackKingMoved = r.blackKingMoved;
+		inCheck = r.inCheck;
+		enPassantLocation = r.enPassantLocation;
+		captured = r.captured;
+		halfmoveClock = r.halfmoveClock;
+		/* Restore the board, including the promoted pawn */
+		cb.Unmove(r.from, r.to, r.capturedAt);
+		if (cb.GetPieceAt(r.from) != r.moved) {
+			cb.PlaceAt(r.from, r.moved);
+		}
+		/* Move the rook back if it was castling */
+		if (Character.toLowerCase(r.moved.GetCode()) == 'k' && Math.abs(r.from.File() - r.to.File()) == 2) {
+			int rank = r.from.Rank();
+			if (r.to.File() == 2) {
+				cb.Unmove(new Location(0,rank), new Location(3,rank), Piece.NOTHING);
+			} else if (r.to.File() == 6) {
+				cb.Unmove(new Location(7,rank), new Location(5,rank), Piece.NOTHING);
+			}
+		}
+		/* The pawn that could be captured en passant is missing only if it was */
+		if (enPassantLocation != null && cb.EmptyAt(enPassantLocation)) {
+			cb.PlaceAt(enPassantLocation, r.enPassantPawn);
+		}
+	}
+
+	/** Replay the last move taken back.
+	 *  \returns false if there is no move to replay
+	 */
+	private boolean Redo() {
+		MoveRecord r = history.Redo();
+		if (r == null) { return false; }
+		Play(r, r.promoteTo);
+		position = Snapshot();
+		return true;
+	}
+
+	/** Move a piece on the chess board and update the game state accordingly.
+	 *  The move is assumed to be good. The turn is not passed to the opponent.
+	 */
+	private void MakeMove(Location from, Location to, String promoteTo) {
 		/* Ask the chess board to move it */
 		captured = cb.Move(from, to);
 		/* Special handling for pawns */
@@ -348,29 +651,161 @@ class ChessGame {
 				}
 			}
 		}
-		/* Mark initial rook moves */
-		if (code == 'n') {
+		/* Mark initial rook moves, or rooks captured before they moved */
+		if (code == 'r' && from.Rank() == 7) {
 			if (from.File() == 0) { blackARookMoved = true; }
 			if (from.File() == 7) { blackHRookMoved = true; }
-		} else if (code == 'N') {
+		} else if (code == 'R' && from.Rank() == 0) {
 			if (from.File() == 0) { whiteARookMoved = true; }
 			if (from.File() == 7) { whiteHRookMoved = true; }
 		}
+		if (to.Rank() == 7) {
+			if (to.File() == 0) { blackARookMoved = true; }
+			if (to.File() == 7) { blackHRookMoved = true; }
+		} else if (to.Rank() == 0) {
+			if (to.File() == 0) { whiteARookMoved = true; }
+			if (to.File() == 7) { whiteHRookMoved = true; }
+		}
 	}
 
 	/** Constructor to set up console */
 	private ChessGame () {
-		console = System.console();
+		this(System.console());
 		if (console == null) {
 			System.err.println("No console.");
 			System.exit(1);
 		}
 	}
 
-	/** High-level controller of the chess game.
-	 *  It takes input from user, validate it, do the move, and repeat.
+	private ChessGame (Console console) {
+		this.console = console;
+	}
+
+	/** \returns A new game played by the program instead of the console */
+	static ChessGame Create() {
+		ChessGame game = new ChessGame(null);
+		game.NewGame();
+		return game;
+	}
+
+	/** \returns The chess board, which is not to be changed */
+	ChessBoard Board() { return cb; }
+
+	/** \returns whether it is white to move */
+	boolean WhiteMove() { return whiteMove; }
+
+	/** \returns whether the player to move is in check */
+	boolean InCheck() { return inCheck; }
+
+	/** \returns The piece captured by the last move */
+	Piece Captured() { return captured; }
+
+	/** \returns A game from a position in Forsyth-Edwards Notation, e.g.
+	 *  "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 1", played
+	 *  by the program; or null if the notation is malformed
 	 */
-	private void StartGame() {
+	static ChessGame FromFen(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		String[] ranks = fields[0].split("/");
+		if (ranks.length != 8) { return null; }
+		ChessGame game = Create();
+		ChessBoard cb = game.cb;
+		cb.Clear();
+		for (int i = 0; i < 8; ++i) {
+			int j = 0;
+			for (char c : ranks[7 - i].toCharArray()) {
+				if (Character.isDigit(c)) {
+					j += c - '0';
+				} else {
+					int p = " KQRNBPkqrnbp".indexOf(c);
+					if (p <= 0 || j > 7) { return null; }
+					cb.PlaceAt(new Location(j++, i), Piece.values()[p]);
+				}
+			}
+			if (j != 8) { return null; }
+		}
+		game.whiteMove = (fields.length < 2 || fields[1].equals("w"));
+		String castling = (fields.length < 3) ? "-" : fields[2];
+		game.whiteHRookMoved = castling.indexOf('K') < 0;
+		game.whiteARookMoved = castling.indexOf('Q') < 0;
+		game.whiteKingMoved = game.whiteHRookMoved && game.whiteARookMoved;
+		game.blackHRookMoved = castling.indexOf('k') < 0;
+		game.blackARookMoved = castling.indexOf('q') < 0;
+		game.blackKingMoved = game.blackHRookMoved && game.blackARookMoved;
+		for (int j = 0; j < 8; ++j) {
+			game.whitePawnMoved[j] = cb.GetPieceAt(1, j) != Piece.WPAWN;
+			game.blackPawnMoved[j] = cb.GetPieceAt(6, j) != Piece.BPAWN;
+		}
+		// FEN names the square passed over, the pawn is in front of it
+		if (fields.length > 3 && fields[3].matches("[a-h][36]")) {
+			int rank = (fields[3].charAt(1) == '3') ? 3 : 4;
+			game.enPassantLocation = new Location(fields[3].charAt(0) - 'a', rank);
+		}
+		if (fields.length > 4 && fields[4].matches("\\d+")) {
+			game.halfmoveClock = Integer.parseInt(fields[4]);
+		}
+		// Whether the player to move is in check is whether the opponent gives check
+		game.whiteMove = ! game.whiteMove;
+		game.inCheck = game.GivesCheck();
+		game.whiteMove = ! game.whiteMove;
+		game.position = game.Snapshot();
+		return game;
+	}
+
+	/** Set up this game as in a position snapshot, with no history. This
+	 *  reuses the game instead of creating one for each position.
+	 */
+	void Load(Position p) {
+		cb.Load(p);
+		whiteMove = p.WhiteMove();
+		whiteKingMoved = p.Moved(Zobrist.WHITE_KING);
+		whiteARookMoved = p.Moved(Zobrist.WHITE_AROOK);
+		whiteHRookMoved = p.Moved(Zobrist.WHITE_HROOK);
+		blackKingMoved = p.Moved(Zobrist.BLACK_KING);
+		blackARookMoved = p.Moved(Zobrist.BLACK_AROOK);
+		blackHRookMoved = p.Moved(Zobrist.BLACK_HROOK);
+		for (int j = 0; j < 8; ++j) {
+			whitePawnMoved[j] = p.PawnMoved(true, j);
+			blackPawnMoved[j] = p.PawnMoved(false, j);
+		}
+		// The pawn to capture en passant belongs to the opponent
+		int file = p.EnPassantFile();
+		enPassantLocation = (file < 0) ? null : new Location(file, (whiteMove) ? 4 : 3);
+		captured = Piece.NOTHING;
+		halfmoveClock = 0;
+		history.Clear();
+		whiteMove = ! whiteMove;
+		inCheck = GivesCheck();
+		whiteMove = ! whiteMove;
+		position = p;
+	}
+
+	/** \returns A copy of this game, which can be played independently in
+	 *  another thread. The history is not copied.
+	 */
+	ChessGame Copy() {
+		ChessGame game = new ChessGame(null);
+		game.cb = new ChessBoard(cb);
+		game.whiteMove = whiteMove;
+		game.whitePawnMoved = whitePawnMoved.clone();
+		game.blackPawnMoved = blackPawnMoved.clone();
+		game.whiteARookMoved = whiteARookMoved;
+		game.whiteHRookMoved = whiteHRookMoved;
+		game.whiteKingMoved = whiteKingMoved;
+		game.blackARookMoved = blackARookMoved;
+		game.blackHRookMoved = blackHRookMoved;
+		game.blackKingMoved = blackKingMoved;
+		game.inCheck = inCheck;
+		game.enPassantLocation = enPassantLocation;
+		game.captured = captured;
+		game.halfmoveClock = halfmoveClock;
+		game.history = new History(HISTORY_SIZE);
+		game.position = position;
+		return game;
+	}
+
+	/** Set up the chess board and the game state for a new game */
+	private void NewGame() {
 		// Prepare the chess board
 		cb = new ChessBoard();
 		// Initialization
@@ -389,21 +824,43 @@ class ChessGame {
 		inCheck = false;
 		whiteMove = true;
 		captured = Piece.NOTHING;
+		enPassantLocation = null;
+		halfmoveClock = 0;
+		history = new History(HISTORY_SIZE);
+		position = Snapshot();
+	}
+
+	/** High-level controller of the chess game.
+	 *  It takes input from user, validate it, do the move, and repeat.
+	 */
+	private void StartGame() {
+		NewGame();
+		String draw = null;
 		// Repeat until game finished
-		while(! cb.End()) {
+		while(! cb.End() && draw == null && LegalMoves().Status() != MoveList.CHECKMATE) {
 			cb.Print();
 			if (captured.GetCode() != ' ') {
 				console.printf("Captured %c\n", captured.GetCode());
 			}
 			if (inCheck) {
-				console.printf("Checkmate!\n");
+				console.printf("Check!\n");
+			}
+			String move = console.readLine((whiteMove?"White":"Black") + " player, type your move (e.g. 'a2 a3', or 'hint a2', 'undo', 'redo'): ");
+			if (move.trim().equalsIgnoreCase("undo")) {
+				if (! Undo()) { console.printf("nothing to undo\n"); }
+				continue;
+			} else if (move.trim().equalsIgnoreCase("redo")) {
+				if (! Redo()) { console.printf("nothing to redo\n"); }
+				draw = Draw();
+				continue;
+			} else if (move.trim().toLowerCase().startsWith("hint")) {
+				Hint(move.trim().substring(4));
+				continue;
 			}
-			String move = console.readLine((whiteMove?"White":"Black") + " player, type your move (e.g. 'a2 a3'): ");
 			switch (Validate(move)) {
 				case 0:
-					MakeMove(move);
-					inCheck = Checkmate();
-					whiteMove = ! whiteMove;
+					Play(move, "");
+					draw = Draw();
 					break;
 				case INVALID_LOCATION:
 					console.printf("invalid location format\n");
@@ -420,9 +877,19 @@ class ChessGame {
 				case INVALID_MOVE:
 					console.printf("unlawful move\n");
 					break;
+				case KING_EXPOSED:
+					console.printf("your king would be under attack\n");
+					break;
+			}
+		}
+		if (draw != null) {
+			console.printf("Game finished. Draw by " + draw + ".");
+		} else {
+			if (LegalMoves().Status() == MoveList.CHECKMATE) {
+				console.printf("Checkmate! ");
 			}
+			console.printf("Game finished." + (whiteMove?"Black":"White") + " won.");
 		}
-		console.printf("Game finished." + (whiteMove?"Black":"White") + " won.");
 	}
 
 	/** Verify the game running correctly using Kasparov vs the World.
@@ -430,24 +897,8 @@ class ChessGame {
 	 *  This function has the same structure as StartGame().
 	 */
 	public boolean UnitTest() {
-		// Prepare the chess board
-		cb = new ChessBoard();
-		// Initialization
-		cb.Initialize();
-		whitePawnMoved = new boolean[8];
-		blackPawnMoved = new boolean[8];
-		for (int i=0; i<8; ++i) {
-			whitePawnMoved[i] = blackPawnMoved[i] = false;
-		}
-		blackKingMoved = false;
-		blackARookMoved = false;
-		blackHRookMoved = false;
-		whiteKingMoved = false;
-		whiteARookMoved = false;
-		whiteHRookMoved = false;
-		inCheck = false;
-		whiteMove = true;
-		captured = Piece.NOTHING;
+		NewGame();
+		Position start = CurrentPosition();
 		// The moves of Kasparov vs the World
 		TestMove[] moves = {
 			new TestMove("e2 e4", "", false, false, Piece.NOTHING), // 1
@@ -581,14 +1032,12 @@ class ChessGame {
 				System.out.printf("Captured %c\n", captured.GetCode());
 			}
 			if (inCheck) {
-				System.out.printf("Checkmate!\n");
+				System.out.printf("Check!\n");
 			}
 			System.out.println((whiteMove?"White":"Black") + " player, type your move (e.g. 'a2 a3'): " + moves[i].Input());
 			switch (Validate(moves[i].Input())) {
 				case 0:
-					MakeMove(moves[i].Input(), moves[i].PromoteTo());
-					inCheck = Checkmate();
-					whiteMove = ! whiteMove;
+					Play(moves[i].Input(), moves[i].PromoteTo());
 					break;
 				case INVALID_LOCATION:
 					console.printf("invalid location format\n");
@@ -605,6 +1054,9 @@ class ChessGame {
 				case INVALID_MOVE:
 					console.printf("unlawful move\n");
 					break;
+				case KING_EXPOSED:
+					console.printf("your king would be under attack\n");
+					break;
 			}
 			if (whiteMove != moves[i].WhiteNext() ||
 			    inCheck != moves[i].Check() ||
@@ -618,6 +1070,185 @@ class ChessGame {
 			System.out.println("Test failed at final state");
 			return false;
 		}
+		// Take back every move then replay them
+		Position end = CurrentPosition();
+		while (Undo()) {}
+		if (! CurrentPosition().equals(start)) {
+			System.out.println("Test failed at the snapshot of the initial position");
+			return false;
+		}
+		ChessBoard initial = new ChessBoard();
+		initial.Initialize();
+		if (! cb.Equals(initial) || cb.Hash() != initial.Hash() || cb.PawnHash() != initial.PawnHash() ||
+		    ! whiteMove || halfmoveClock != 0) {
+			System.out.println("Test failed at taking back moves");
+			return false;
+		}
+		long hits = moveCache.Hits();
+		do { LegalMoves(); } while (Redo());
+		if (moveCache.Hits() - hits != moves.length) {
+			System.out.println("Test failed at caching lawful moves: " + moveCache.Stats());
+			return false;
+		}
+		if (! cb.Equals(ChessBoard.KasparovEnd()) || cb.Hash() != ChessBoard.KasparovEnd().Hash() || whiteMove) {
+			System.out.println("Test failed at replaying moves");
+			return false;
+		}
+		if (! CurrentPosition().equals(end) || CurrentPosition() == end ||
+		    CurrentPosition().GetPieceAt(6, 6) != Piece.WPAWN || CurrentPosition().WhiteMove()) {
+			System.out.println("Test failed at the snapshot of the final position");
+			return false;
+		}
+		// The king walks out and back, losing castling, then the rook twice:
+		// the rook moving does not change the rights, so the position repeats
+		ChessGame rights = FromFen("4k3/8/8/8/8/8/8/R3K3 w Q - 0 1");
+		for (String move : new String[] {"e1 f1", "e8 d8", "f1 e1", "d8 e8",
+		                                 "a1 a2", "e8 d8", "a2 a1", "d8 e8",
+		                                 "a1 a2", "e8 d8", "a2 a1", "d8 e8"}) {
+			rights.Play(move, "q");
+		}
+		if (! "threefold repetition".equals(rights.Draw())) {
+			System.out.println("Test failed at repeating a position after the castling rights are lost");
+			return false;
+		}
+		// Keys from the Polyglot book format description
+		if (Create().PolyglotKey() != 0x463B96181691FC9CL ||
+		    FromFen("rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3").PolyglotKey() != 0x22A48B5A8E47FF78L ||
+		    FromFen("rnbqkbnr/p1pppppp/8/8/P6P/R1p5/1P1PPPP1/1NBQKBNR b Kkq - 0 4").PolyglotKey() != 0x5C3F9B829B279560L) {
+			System.out.println("Test failed at the Polyglot key");
+			return false;
+		}
+		// The 4 positions of a game played twice are each seen 2-9 times
+		try {
+			CorpusStats stats = new CorpusStats(1 << 20);
+			stats.Add("e2e4 e7e5 g1f3");
+			stats.Add("e2e4 e7e5 g1f3");
+			long[] byFrequency = stats.ByFrequency();
+			if (CorpusStats.Bucket(2) != 1 || byFrequency[0] != 0 || byFrequency[1] != 4) {
+				System.out.println("Test failed at counting repeated positions");
+				return false;
+			}
+			LongIntMap map = LongIntMap.OfKeys(1000);
+			for (long k = 1; k <= 1000; ++k) {
+				map.Add(k * 0x9E3779B97F4A7C15L, 1);
+			}
+			if (map.Size() != 1000 || map.Full()) {
+				System.out.println("Test failed at sizing a map for 1000 keys");
+				return false;
+			}
+		} catch (java.io.IOException e) {
+			System.out.println("Test failed at counting positions: " + e.getMessage());
+			return false;
+		}
+		// Elo difference: none at 50%, +191 at 75%, unbounded for all games won or lost
+		if (Tournament.Elo(0.5) != 0 || Math.round(Tournament.Elo(0.75)) != 191 ||
+		    Tournament.Elo(0.0) != Double.NEGATIVE_INFINITY || Tournament.Elo(1.0) != Double.POSITIVE_INFINITY ||
+		    ! Tournament.Elo(4, 2, 4).startsWith("+0 ") || ! Tournament.Elo(3, 0, 0).startsWith("+Infinity ") ||
+		    ! Tournament.Elo(0, 0, 3).startsWith("-Infinity ")) {
+			System.out.println("Test failed at the Elo difference: " + Tournament.Elo(4, 2, 4));
+			return false;
+		}
+		// A game replayed from its seed is the same, also by engines that played another game
+		Engine white = new Engine(1), black = new Engine(1);
+		String[] reason = new String[1];
+		java.util.List<TestMove> record = new java.util.ArrayList<TestMove>();
+		int result = Tournament.PlayGame(7, white, black, record, reason);
+		String game = Tournament.Moves(record);
+		record.clear();
+		Tournament.PlayGame(8, white, black, record, reason);
+		String other = Tournament.Moves(record);
+		record.clear();
+		if (Tournament.PlayGame(7, white, black, record, reason) != result || ! Tournament.Moves(record).equals(game) ||
+		    game.equals(other)) {
+			System.out.println("Test failed at replaying a game from its seed: " + Tournament.Moves(record));
+			return false;
+		}
+		// Fool's mate: 1. f3 e5 2. g4 Qh4#
+		int[] mate = new MateSolver(100000, 10000, 16).Solve(
+			FromFen("rnbqkbnr/pppp1ppp/8/4p3/6P1/5P2/PPPPP2P/RNBQKBNR b KQkq g3 0 2"), 2);
+		if (mate == null || mate.length != 1 || ! PackedMove.Input(mate[0]).equals("d8 h4")) {
+			System.out.println("Test failed at solving mate in 1");
+			return false;
+		}
+		// Analyse games sharing positions, on two threads, by engines that fail on
+		// the position after 1. e4 e5 2. Nf3: the games shall be written in order,
+		// every position searched once, and the unlawful and failed moves marked
+		Analyzer analyzer = new Analyzer(1, 2) {
+			@Override
+			Engine NewEngine(PawnTable pawns) {
+				return new Engine(1, pawns) {
+					@Override
+					public int BestMove(ChessGame g) {
+						if (g.Board().GetPieceAt(2, 5) == Piece.WKNIGHT && g.Board().GetPieceAt(7, 1) == Piece.BKNIGHT) {
+							throw new IllegalStateException("test");
+						}
+						return super.BestMove(g);
+					}
+				};
+			}
+		};
+		StringBuilder games = new StringBuilder();
+		String[] played = {"e2e4 e7e5 g1f3", "e2e4 e7e5 g1f3 b8c6", "d2d4 d7d5 e2e5"};
+		for (int i = 0; i < 15; ++i) {
+			games.append(String.format("%d\t0\tdepth1\tdepth1\t1/2-1/2\tunknown\t%s\n", i, (i < 3) ? played[i] : "e2e4 e7e5"));
+		}
+		java.io.StringWriter analysis = new java.io.StringWriter();
+		try {
+			analyzer.Run(new java.io.StringReader(games.toString()), analysis);
+		} catch (java.io.IOException | InterruptedException e) {
+			System.out.println("Test failed at analysing games: " + e);
+			return false;
+		}
+		StringBuilder plies = new StringBuilder();
+		for (String row : analysis.toString().split("\n")) {
+			String[] fields = row.split("\t", -1);
+			plies.append(fields[0]).append(':').append(fields[1]).append(fields[5].isEmpty() ? "" : fields[4] + fields[5]).append(' ');
+		}
+		// 7 positions, of which the one after 2. Nf3 fails in the 2 games having it
+		if (! plies.toString().startsWith("0:1 0:2 0:3 1:1 1:2 1:3 1:4-error 2:1 2:2 3:1 3:2 4:1 4:2 ") ||
+		    ! plies.toString().endsWith("14:1 14:2 ") || analyzer.Positions() != 48 || analyzer.Searched() != 6 ||
+		    analyzer.Failures() != 2 || analyzer.Unlawful() != 1 || analyzer.Peak() > 8) {
+			System.out.println("Test failed at analysing games: " + plies + analyzer.Searched() + " searched");
+			return false;
+		}
+		// Pawn table of one entry: a hit after a store, a miss after the entry is
+		// replaced or its pair does not match, but no file evaluated again
+		PawnTable pawns = new PawnTable(0);
+		ChessGame opened = Create();
+		ChessBoard before = new ChessBoard(opened.Board());
+		opened.Play(PackedMove.Parse("e2e4"));
+		ChessBoard after = opened.Board();
+		int scoreBefore = PawnTable.Evaluate(before), scoreAfter = PawnTable.Evaluate(after);
+		boolean scored = pawns.Score(before) == scoreBefore && pawns.Hits() == 0 &&
+		                 pawns.Score(before) == scoreBefore && pawns.Hits() == 1 &&
+		                 pawns.Score(after) == scoreAfter && pawns.Misses() == 2 &&
+		                 pawns.Score(before) == scoreBefore && pawns.Misses() == 3;
+		pawns.table[1] += 1; // As if another thread wrote the score of another entry
+		if (! scored || pawns.Score(before) != scoreBefore || pawns.Hits() != 1 || pawns.Misses() != 4 ||
+		    pawns.Evaluated() != 2) {
+			System.out.println("Test failed at the pawn table: " + pawns.Stats());
+			return false;
+		}
+		// Philidor's legacy: 1. Qb3+ Kh8 2. Nf7+ Kg8 3. Nh6+ Kh8 4. Qg8+ Rxg8 5. Nf7#,
+		// where Kf8 instead of Kh8 is mated at once by Qf7. It shall take no more
+		// than 10000 positions and a second, and there is no mate in 4.
+		MateSolver solver = new MateSolver(10000, 1000, 16);
+		ChessGame legacy = FromFen("r5k1/1p4pp/8/6N1/1Q6/8/8/6K1 w - - 0 1");
+		mate = solver.Solve(legacy, 5);
+		StringBuilder line = new StringBuilder();
+		for (int m : (mate == null) ? new int[0] : mate) {
+			line.append(PackedMove.Input(m)).append(", ");
+			legacy.Play(m);
+		}
+		if (! line.toString().equals("b4 b3, g8 h8, g5 f7, h8 g8, f7 h6, g8 h8, b3 g8, a8 g8, h6 f7, ") ||
+		    legacy.LegalMoves().Status() != MoveList.CHECKMATE) {
+			System.out.println("Test failed at solving mate in 5: " + line + solver.Nodes() + " positions");
+			return false;
+		}
+		if (solver.Solve(FromFen("r5k1/1p4pp/8/6N1/1Q6/8/8/6K1 w - - 0 1"), 4) != null || solver.Aborted()) {
+			System.out.println("Test failed at finding no mate in 4");
+			return false;
+		}
 		return true;
 	}
 
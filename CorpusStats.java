@@ -0,0 +1,359 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Statistics over all positions of a collection of games.
+ *
+ *  Games in the format written by Tournament are replayed with ChessGame,
+ *  and every position counts towards: how often each position occurs, how
+ *  many pieces of each kind are on the board, the castling rights left and
+ *  en passant captures possible, and how often each move is played from
+ *  each position. Counts by position hash go to LongIntMaps, the rest to
+ *  plain arrays, so that a position costs no objects. When a map fills up
+ *  it is spilled to a sorted file, and the files are merged at the end.
+ */
+class CorpusStats {
+	private static final int TOP = 10;        //< Most frequent positions to report
+	private static final int TOP_MOVES = 5;   //< Most played moves to report for each
+	private static final int MOVE_CODES = 5 << 12; //< Packed moves, with or without promotion
+	// Castling flags of the king and rook for white O-O, O-O-O, black O-O, O-O-O
+	private static final int[][] RIGHTS = {{Zobrist.WHITE_KING, Zobrist.WHITE_HROOK}, {Zobrist.WHITE_KING, Zobrist.WHITE_AROOK},
+	                                       {Zobrist.BLACK_KING, Zobrist.BLACK_HROOK}, {Zobrist.BLACK_KING, Zobrist.BLACK_AROOK}};
+
+	/** Occurrences by key, spilled to sorted runs on disk when the map is full */
+	private static class Counter {
+		final LongIntMap map;
+		final List<File> runs = new ArrayList<File>();
+		int spills; //< Times the map was full
+
+		Counter(long bytes) {
+			map = LongIntMap.OfBytes(bytes);
+		}
+
+		void Add(long key) throws IOException {
+			if (map.Full()) {
+				Spill();
+				++spills;
+			}
+			map.Add(key, 1);
+		}
+
+		private void Spill() throws IOException {
+			File run = File.createTempFile("corpus", ".run");
+			run.deleteOnExit();
+			map.Spill(run);
+			map.Clear();
+			runs.add(run);
+		}
+
+		/** Visit the keys in ascending order with their total counts. It
+		 *  merges and removes the spilled runs, so call it once at the end.
+		 */
+		void ForEach(LongIntMap.Visitor v) throws IOException {
+			if (runs.isEmpty()) {
+				map.ForEach(v);
+				return;
+			}
+			Spill();
+			int n = runs.size();
+			DataInputStream[] in = new DataInputStream[n];
+			long[] left = new long[n];  //< Entries not yet read
+			long[] key = new long[n];
+			int[] value = new int[n];
+			try {
+				for (int i = 0; i < n; ++i) {
+					in[i] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(i))));
+					left[i] = runs.get(i).length() / 12;
+					Next(in[i], left, key, value, i);
+				}
+				for (;;) {
+					// Few runs, so look for the smallest key by a scan
+					long min = Long.MAX_VALUE;
+					boolean any = false;
+					for (int i = 0; i < n; ++i) {
+						if (left[i] >= 0 && (!any || key[i] < min)) {
+							min = key[i];
+							any = true;
+						}
+					}
+					if (!any) { break; }
+					long sum = 0;
+					for (int i = 0; i < n; ++i) {
+						if (left[i] >= 0 && key[i] == min) {
+							sum += value[i];
+							Next(in[i], left, key, value, i);
+						}
+					}
+					v.Visit(min, (int)Math.min(sum, Integer.MAX_VALUE));
+				}
+			} finally {
+				for (int i = 0; i < n; ++i) {
+					if (in[i] != null) { in[i].close(); }
+					runs.get(i).delete();
+				}
+				runs.clear();
+			}
+		}
+
+		/** Read the next entry of run i, or mark it finished with left[i] = -1 */
+		private static void Next(DataInputStream in, long[] left, long[] key, int[] value, int i) throws IOException {
+			if (left[i]-- <= 0) { return; }
+			key[i] = in.readLong();
+			value[i] = in.readInt();
+		}
+	}
+
+	private final Counter positions;
+	private final Counter moves; //< Keyed by position hash ^ Zobrist.MoveKey(move)
+	private final long bytes;
+	private long games;
+	private long bad;
+	private long count;          //< Positions, counting repeats
+	private final long[] pieces = new long[33];           //< Positions by number of pieces
+	private final long[][] kinds = new long[13][11];      //< By Piece ordinal, then number of such pieces
+	private final long[] castlingRights = new long[4];    //< White O-O, O-O-O, black O-O, O-O-O still allowed
+	private final long[] castles = new long[4];           //< Castling moves played, in the same order
+	private long enPassantPositions; //< Positions with an en passant capture
+	private long enPassantCaptures;  //< En passant captures played
+	private final int[] pieceCounts = new int[13]; //< Of the position being counted, by Piece ordinal
+	// Filled by merging the position counts
+	private boolean merged;
+	private long distinct;
+	private final long[] byFrequency = new long[10]; //< Positions seen 1, 2-9, 10-99, ... times, see Bucket()
+	private final long[] topKeys = new long[TOP];
+	private final int[] topCounts = new int[TOP];
+
+	/** Create statistics that keep no more than the given bytes in maps */
+	public CorpusStats(long bytes) {
+		positions = new Counter(bytes / 2);
+		moves = new Counter(bytes / 2);
+		this.bytes = positions.map.Bytes() + moves.map.Bytes();
+	}
+
+	/** Count a position and the lawful moves from it */
+	private void Count(Position p, ChessBoard cb, MoveList ml) throws IOException {
+		++count;
+		positions.Add(p.Hash());
+		int total = 0;
+		int[] n = pieceCounts;
+		Arrays.fill(n, 0);
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				++n[p.GetPieceAt(i, j).ordinal()];
+			}
+		}
+		for (int k = 1; k < n.length; ++k) {
+			++kinds[k][Math.min(n[k], 10)];
+			total += n[k];
+		}
+		++pieces[total];
+		for (int k = 0; k < RIGHTS.length; ++k) {
+			if (! p.Moved(RIGHTS[k][0]) && ! p.Moved(RIGHTS[k][1])) { ++castlingRights[k]; }
+		}
+		for (int i = 0; i < ml.Count(); ++i) {
+			if (EnPassant(ml.Get(i), cb)) {
+				++enPassantPositions;
+				break;
+			}
+		}
+	}
+
+	/** \returns whether the move is a pawn capturing en passant */
+	private static boolean EnPassant(int m, ChessBoard cb) {
+		Location from = PackedMove.From(m);
+		Location to = PackedMove.To(m);
+		Piece p = cb.GetPieceAt(from);
+		return (p == Piece.WPAWN || p == Piece.BPAWN) && from.File() != to.File() && cb.EmptyAt(to);
+	}
+
+	/** Replay a game from moves like "e2e4 e7e5" and count its positions.
+	 *  \returns false if a move is not lawful; the positions before it are still counted
+	 */
+	public boolean Add(String line) throws IOException {
+		ChessGame game = ChessGame.Create();
+		++games;
+		for (String token : line.trim().split("\\s+")) {
+			MoveList ml = game.LegalMoves();
+			Count(game.CurrentPosition(), game.Board(), ml);
+			int m = PackedMove.Parse(token);
+			if (m < 0 || ! ml.Contains(m)) {
+				++bad;
+				return false;
+			}
+			moves.Add(game.PositionHash() ^ Zobrist.MoveKey(m));
+			Location from = PackedMove.From(m);
+			Location to = PackedMove.To(m);
+			Piece p = game.Board().GetPieceAt(from);
+			if ((p == Piece.WKING || p == Piece.BKING) && Math.abs(to.File() - from.File()) == 2) {
+				++castles[((p == Piece.WKING) ? 0 : 2) + ((to.File() == 6) ? 0 : 1)];
+			} else if (EnPassant(m, game.Board())) {
+				++enPassantCaptures;
+			}
+			game.Play(m);
+		}
+		Count(game.CurrentPosition(), game.Board(), game.LegalMoves());
+		return true;
+	}
+
+	/** Add the games in a file written by Tournament */
+	public void AddFile(String file) throws IOException {
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			for (String line; (line = in.readLine()) != null; ) {
+				String[] fields = line.split("\t");
+				if (fields.length < 7) { continue; }
+				Add(fields[6]);
+			}
+		}
+	}
+
+	/** \returns The count as a percentage of positions */
+	private String Percent(long n) {
+		return String.format("%.2f%%", 100.0 * n / Math.max(count, 1));
+	}
+
+	/** \returns The bucket of a position seen count times: 0 for once, 1 for
+	 *  2-9 times, 2 for 10-99 times and so on, the last bucket for the rest
+	 */
+	static int Bucket(int count) {
+		return (count == 1) ? 0 : Math.min(1 + (int)Math.log10(count), 9);
+	}
+
+	/** \returns The label of a bucket, e.g. "2-9" */
+	private static String BucketLabel(int b) {
+		if (b == 0) { return "1"; }
+		long low = (b == 1) ? 2 : (long)Math.pow(10, b - 1);
+		return (b == 9) ? low + "+" : low + "-" + ((long)Math.pow(10, b) - 1);
+	}
+
+	/** Merge the position counts into the distinct positions, their
+	 *  frequencies and the most frequent ones, once
+	 */
+	private void MergePositions() throws IOException {
+		if (merged) { return; }
+		merged = true;
+		positions.ForEach((key, value) -> {
+			++distinct;
+			++byFrequency[Bucket(value)];
+			if (value <= topCounts[TOP - 1]) { return; }
+			int j = TOP - 1;
+			for (; j > 0 && topCounts[j - 1] < value; --j) {
+				topKeys[j] = topKeys[j - 1];
+				topCounts[j] = topCounts[j - 1];
+			}
+			topKeys[j] = key;
+			topCounts[j] = value;
+		});
+	}
+
+	/** \returns Number of distinct positions by Bucket() of how often seen.
+	 *  It merges the spilled counts, so add no more games after it.
+	 */
+	long[] ByFrequency() throws IOException {
+		MergePositions();
+		return byFrequency;
+	}
+
+	/** Print the statistics. It merges the spilled counts, so call it once at the end. */
+	public void Report() throws IOException {
+		int spilled = positions.spills + moves.spills;
+		System.out.printf("%d games (%d with unlawful moves), %d positions\n", games, bad, count);
+
+		// Distinct positions, by how often seen, and the most frequent ones
+		MergePositions();
+		System.out.printf("%d distinct positions\n", distinct);
+		for (int b = 0; b < byFrequency.length; ++b) {
+			if (byFrequency[b] == 0) { continue; }
+			System.out.printf("  seen %s %s: %d positions\n", BucketLabel(b), (b == 0) ? "time" : "times", byFrequency[b]);
+		}
+
+		System.out.println("positions by number of pieces:");
+		for (int n = pieces.length - 1; n >= 0; --n) {
+			if (pieces[n] > 0) { System.out.printf("  %2d: %s\n", n, Percent(pieces[n])); }
+		}
+		System.out.println("positions by number of each piece:");
+		for (Piece p : Piece.values()) {
+			if (p == Piece.NOTHING) { continue; }
+			StringBuilder sb = new StringBuilder();
+			for (int n = 0; n < kinds[p.ordinal()].length; ++n) {
+				if (kinds[p.ordinal()][n] > 0) {
+					sb.append(String.format(" %d%s:%s", n, (n == 10) ? "+" : "", Percent(kinds[p.ordinal()][n])));
+				}
+			}
+			System.out.printf("  %c%s\n", p.GetCode(), sb);
+		}
+		String[] sides = {"white O-O", "white O-O-O", "black O-O", "black O-O-O"};
+		for (int k = 0; k < sides.length; ++k) {
+			System.out.printf("%s: allowed in %s of positions, played %d times\n",
+			                  sides[k], Percent(castlingRights[k]), castles[k]);
+		}
+		System.out.printf("en passant: possible in %d positions (%s), played %d times\n",
+		                  enPassantPositions, Percent(enPassantPositions), enPassantCaptures);
+
+		// Moves of the most frequent positions: look up every move code of
+		// those positions in the merged move counts
+		LongIntMap wanted = LongIntMap.OfKeys((long)TOP * MOVE_CODES);
+		for (int t = 0; t < TOP && topCounts[t] > 0; ++t) {
+			for (int m = 0; m < MOVE_CODES; ++m) {
+				wanted.Add(topKeys[t] ^ Zobrist.MoveKey(m), t * MOVE_CODES + m + 1);
+			}
+		}
+		final int[][] topMoves = new int[TOP][TOP_MOVES];
+		final int[][] topMoveCounts = new int[TOP][TOP_MOVES];
+		final long[] distinctMoves = new long[1];
+		moves.ForEach((key, value) -> {
+			++distinctMoves[0];
+			int w = wanted.Get(key) - 1;
+			if (w < 0) { return; }
+			int t = w / MOVE_CODES;
+			if (value <= topMoveCounts[t][TOP_MOVES - 1]) { return; }
+			int j = TOP_MOVES - 1;
+			for (; j > 0 && topMoveCounts[t][j - 1] < value; --j) {
+				topMoves[t][j] = topMoves[t][j - 1];
+				topMoveCounts[t][j] = topMoveCounts[t][j - 1];
+			}
+			topMoves[t][j] = w % MOVE_CODES;
+			topMoveCounts[t][j] = value;
+		});
+		System.out.println("most frequent positions and their moves:");
+		for (int t = 0; t < TOP && topCounts[t] > 0; ++t) {
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < TOP_MOVES && topMoveCounts[t][j] > 0; ++j) {
+				int m = topMoves[t][j];
+				sb.append(String.format(" %s%s:%d", PackedMove.Input(m).replace(" ", ""),
+				                        PackedMove.PromoteTo(m), topMoveCounts[t][j]));
+			}
+			System.out.printf("  %016x %d times,%s\n", topKeys[t], topCounts[t], sb);
+		}
+
+		// Slots at the load limit of the maps to count everything in memory
+		double needed = (distinct + distinctMoves[0]) * 12.0 * 4 / 3;
+		System.out.printf("%d distinct positions and moves take %.1f MB per million positions in maps of %.1f MB, %d runs spilled to disk\n",
+		                  distinct + distinctMoves[0], needed / Math.max(count, 1), bytes / 1e6, spilled);
+	}
+
+	/** Print statistics of the positions in Tournament game files, keeping
+	 *  counts in no more than the given megabytes of memory.
+	 *  Usage: java CorpusStats [megabytes] [game file]...
+	 */
+	public static void main(String[] args) throws IOException {
+		int mb = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+		CorpusStats stats = new CorpusStats((long)mb * 1024 * 1024);
+		long start = System.nanoTime();
+		for (int i = 1; i < args.length; ++i) {
+			stats.AddFile(args[i]);
+		}
+		if (args.length <= 1) {
+			stats.AddFile("games.txt");
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("replayed in %.1f s (%.0f positions/s)\n", seconds, stats.count / seconds);
+		stats.Report();
+	}
+}
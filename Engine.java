@@ -0,0 +1,158 @@
+import java.util.Random;
+
+/** A simple chess engine: fixed-depth alpha-beta search over the lawful
+ *  moves of ChessGame, with a material, piece placement and pawn structure
+ *  evaluation. The pawn structure scores are cached in its own PawnTable.
+ *
+ *  An engine keeps the state of its search, so each thread shall use its own.
+ *  Given the same position and depth, it always picks the same move, except
+ *  for book moves drawn by weight, which repeat given the same book seed.
+ */
+class Engine {
+	public static final int MATE = 100000; //< Score of giving checkmate now
+	private static final int[] value = {0, 0, 900, 500, 320, 330, 100, 0, 900, 500, 320, 330, 100}; //< By Piece ordinal
+	public static final int PAWN_TABLE_BITS = 16;
+
+	private final int depth;
+	private final MoveRecord[] records;
+	private final PawnTable pawns;
+	private OpeningBook book;
+	private Random bookRandom; //< Draws book moves by weight if set
+	private int score;
+	private long nodes;
+
+	/** Create an engine that searches the given number of plies, with its own pawn table */
+	public Engine(int depth) {
+		this(depth, new PawnTable(PAWN_TABLE_BITS));
+	}
+
+	/** Create an engine that searches the given number of plies and caches
+	 *  pawn structure scores in a table that may be shared with other engines
+	 */
+	public Engine(int depth, PawnTable pawns) {
+		this.depth = depth;
+		this.pawns = pawns;
+		records = new MoveRecord[depth + 1];
+		for (int i = 0; i <= depth; ++i) {
+			records[i] = new MoveRecord();
+		}
+	}
+
+	public int Depth() { return depth; }
+
+	/** Play the moves of the book, if it has the position, instead of searching */
+	public void SetBook(OpeningBook book) { this.book = book; }
+
+	/** Draw book moves in proportion to their weights, from the given seed,
+	 *  instead of playing the move of the highest weight
+	 */
+	public void SetBookSeed(long seed) { bookRandom = new Random(seed); }
+
+	/** \returns The score of the last search, for the player to move, in centipawns */
+	public int Score() { return score; }
+
+	/** \returns Number of positions visited by all searches */
+	public long Nodes() { return nodes; }
+
+	/** \returns The pawn structure scores cached by the searches */
+	public PawnTable Pawns() { return pawns; }
+
+	/** \returns The best move of the player to move as in PackedMove, or -1
+	 *  if the game is over. Its score is available from Score(), which is 0
+	 *  for a book move.
+	 */
+	public int BestMove(ChessGame game) {
+		MoveList ml = game.LegalMoves();
+		if (ml.Count() == 0) {
+			score = (ml.Status() == MoveList.CHECKMATE) ? -MATE : 0;
+			return -1;
+		}
+		if (book != null) {
+			int m = (bookRandom != null) ? book.Pick(game, bookRandom.nextDouble()) : book.Best(game);
+			if (m >= 0 && ml.Contains(m)) {
+				score = 0;
+				return m;
+			}
+		}
+		int[] order = Order(game, ml);
+		int best = order[0];
+		int alpha = -MATE - 1;
+		for (int m : order) {
+			game.Play(m, records[0]);
+			int s = -Search(game, depth - 1, 1, -MATE - 1, -alpha);
+			game.Unplay(records[0]);
+			if (s > alpha) {
+				alpha = s;
+				best = m;
+			}
+		}
+		score = alpha;
+		return best;
+	}
+
+	/** Negamax alpha-beta search.
+	 *  \returns The score of the position for the player to move
+	 */
+	private int Search(ChessGame game, int depth, int ply, int alpha, int beta) {
+		++nodes;
+		MoveList ml = game.LegalMoves();
+		if (ml.Count() == 0) {
+			// Prefer the quicker checkmate
+			return (ml.Status() == MoveList.CHECKMATE) ? -MATE + ply : 0;
+		}
+		if (depth <= 0) { return Evaluate(game); }
+		for (int m : Order(game, ml)) {
+			game.Play(m, records[ply]);
+			int s = -Search(game, depth - 1, ply + 1, -beta, -alpha);
+			game.Unplay(records[ply]);
+			if (s >= beta) { return beta; }
+			if (s > alpha) { alpha = s; }
+		}
+		return alpha;
+	}
+
+	/** \returns The moves with captures of more valuable pieces first, then promotions */
+	private int[] Order(ChessGame game, MoveList ml) {
+		int n = ml.Count();
+		int[] moves = new int[n];
+		int[] keys = new int[n];
+		for (int i = 0; i < n; ++i) {
+			int m = ml.Get(i);
+			int j = i;
+			int key = value[game.Board().GetPieceAt(PackedMove.To(m)).ordinal()] + ((m >> 12) & 7) * 100;
+			// Insertion sort, stable so that the search is repeatable
+			for (; j > 0 && keys[j - 1] < key; --j) {
+				moves[j] = moves[j - 1];
+				keys[j] = keys[j - 1];
+			}
+			moves[j] = m;
+			keys[j] = key;
+		}
+		return moves;
+	}
+
+	/** \returns The static score of the position for the player to move */
+	public int Evaluate(ChessGame game) {
+		ChessBoard cb = game.Board();
+		int s = pawns.Score(cb);
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				Piece p = cb.GetPieceAt(i, j);
+				if (p == Piece.NOTHING) { continue; }
+				int v = value[p.ordinal()];
+				switch (Character.toLowerCase(p.GetCode())) {
+					case 'k':
+						v += PawnTable.Shield(cb, i, j);
+						break;
+					case 'n':
+					case 'b':
+						// Minor pieces are worth more in the centre
+						v += 10 * (3 - Math.max(Math.abs(2 * i - 7), Math.abs(2 * j - 7)) / 2);
+						break;
+				}
+				s += (p.IsWhite()) ? v : -v;
+			}
+		}
+		return (game.WhiteMove()) ? s : -s;
+	}
+}
@@ -0,0 +1,74 @@
+/** The history of a game as a ring of move records.
+ *
+ *  The records are allocated once and reused, so a long game does not grow
+ *  the memory. Only the latest `capacity' moves can be taken back, which is
+ *  more than the fifty-move rule ever needs for the repetition check. Moves
+ *  that are taken back stay in the ring for redo until a new move is made.
+ */
+class History {
+	private final MoveRecord[] records;
+	private final int mask;
+	private int top;   //< Ring index of the next move
+	private int count; //< Number of moves that can be taken back
+	private int redo;  //< Number of moves that can be replayed
+
+	/** Create a history of the given capacity, rounded up to a power of two */
+	public History(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		records = new MoveRecord[size];
+		for (int i = 0; i < size; ++i) {
+			records[i] = new MoveRecord();
+		}
+		mask = size - 1;
+	}
+
+	/** Forget all moves */
+	public void Clear() {
+		top = count = redo = 0;
+	}
+
+	/** \returns The record for a new move, which also drops all redo moves */
+	public MoveRecord Push() {
+		MoveRecord r = records[top];
+		top = (top + 1) & mask;
+		if (count <= mask) { ++count; }
+		redo = 0;
+		return r;
+	}
+
+	/** \returns The record of the last move to take back, or null if none */
+	public MoveRecord Pop() {
+		if (count == 0) { return null; }
+		top = (top - 1) & mask;
+		--count;
+		++redo;
+		return records[top];
+	}
+
+	/** \returns The record of the last move taken back to replay, or null if none */
+	public MoveRecord Redo() {
+		if (redo == 0) { return null; }
+		MoveRecord r = records[top];
+		top = (top + 1) & mask;
+		++count;
+		--redo;
+		return r;
+	}
+
+	/** \returns Number of moves that can be taken back */
+	public int Size() { return count; }
+
+	/** Count how many times a position appeared before with the same player
+	 *  to move, looking back at most the given number of moves. Moves beyond
+	 *  the last capture or pawn move can never repeat a position, so the
+	 *  halfmove clock is the right window.
+	 */
+	public int Repetitions(long hash, int plies) {
+		int limit = Math.min(plies, count);
+		int n = 0;
+		for (int i = 2; i <= limit; i += 2) {
+			if (records[(top - i) & mask].hash == hash) { ++n; }
+		}
+		return n;
+	}
+}
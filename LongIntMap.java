@@ -0,0 +1,130 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** A map from long to int counts, such as position hash to occurrences.
+ *
+ *  Keys and values are kept in two plain arrays with open addressing and
+ *  linear probing, 12 bytes a slot without any object per entry. The size is
+ *  fixed when created: the owner shall Spill() the map to a sorted file and
+ *  Clear() it when Full(). Key 0 is kept aside as it marks an empty slot.
+ */
+class LongIntMap {
+	private final long[] keys;
+	private final int[] values;
+	private final int mask;
+	private final int limit; //< Entries before it is full, 3/4 of the slots
+	private int size;
+	private boolean hasZero;
+	private int zeroValue;
+
+	/** Called with every key and value */
+	interface Visitor {
+		void Visit(long key, int value);
+	}
+
+	/** Create a map of 2^bits slots */
+	public LongIntMap(int bits) {
+		keys = new long[1 << bits];
+		values = new int[1 << bits];
+		mask = (1 << bits) - 1;
+		limit = (1 << bits) / 4 * 3;
+	}
+
+	/** \returns A map that takes no more than the given bytes of memory */
+	public static LongIntMap OfBytes(long bytes) {
+		int bits = 4;
+		while (bits < 30 && (12L << (bits + 1)) <= bytes) { ++bits; }
+		return new LongIntMap(bits);
+	}
+
+	/** \returns A map that holds the given number of keys before it is full */
+	public static LongIntMap OfKeys(long keys) {
+		int bits = 4;
+		while (bits < 30 && (1L << bits) / 4 * 3 < keys) { ++bits; }
+		return new LongIntMap(bits);
+	}
+
+	private int Slot(long key) {
+		int i = (int)(key ^ (key >>> 32)) & mask;
+		while (keys[i] != 0 && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/** Add to the value of the key, which is 0 if it was not in the map */
+	public void Add(long key, int delta) {
+		if (key == 0) {
+			if (!hasZero) { ++size; }
+			hasZero = true;
+			zeroValue += delta;
+			return;
+		}
+		int i = Slot(key);
+		if (keys[i] == 0) {
+			keys[i] = key;
+			++size;
+		}
+		values[i] += delta;
+	}
+
+	/** \returns The value of the key, or 0 if not in the map */
+	public int Get(long key) {
+		if (key == 0) { return zeroValue; }
+		int i = Slot(key);
+		return (keys[i] == 0) ? 0 : values[i];
+	}
+
+	/** \returns Number of keys in the map */
+	public int Size() { return size; }
+
+	/** \returns whether the map shall be spilled before adding more keys */
+	public boolean Full() { return size >= limit; }
+
+	/** \returns Memory taken by the slots */
+	public long Bytes() { return 12L * keys.length; }
+
+	/** Remove all keys */
+	public void Clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, 0);
+		size = 0;
+		hasZero = false;
+		zeroValue = 0;
+	}
+
+	/** \returns The keys in ascending order */
+	private long[] SortedKeys() {
+		long[] sorted = new long[size];
+		int n = 0;
+		if (hasZero) { sorted[n++] = 0; }
+		for (long k : keys) {
+			if (k != 0) { sorted[n++] = k; }
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/** Visit the keys in ascending order */
+	public void ForEach(Visitor v) {
+		for (long k : SortedKeys()) {
+			v.Visit(k, Get(k));
+		}
+	}
+
+	/** Write the keys in ascending order to a file, each a long followed by
+	 *  its value as an int
+	 */
+	public void Spill(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			for (long k : SortedKeys()) {
+				out.writeLong(k);
+				out.writeInt(Get(k));
+			}
+		}
+	}
+}
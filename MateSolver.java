@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/** Prove "mate in N" for puzzle positions.
+ *
+ *  It is a depth-first search in which the attacking side only tries moves
+ *  that give check, as in nearly all puzzles, and the defending side tries
+ *  every lawful move. Checks that leave the fewest replies are tried first.
+ *  Proven and disproven positions are kept in the solver's own transposition
+ *  table. Searching for mate in 1, 2, ... up to N moves finds the shortest
+ *  mate, and the line played out has the longest defence against it.
+ *
+ *  The search stops when it visits too many positions or runs out of time;
+ *  Aborted() then tells that the answer is unknown rather than no mate.
+ */
+class MateSolver {
+	private final long maxNodes;
+	private final long maxNanos;
+	private final long[] keys;      //< Position hash with the attacker to move
+	private final byte[] proven;    //< Mate in this many moves, 0 if not known
+	private final byte[] disproven; //< No mate in this many moves
+	private final int mask;
+	private MoveRecord[] records;
+	private long nodes;
+	private long deadline;
+	private boolean aborted;
+
+	/** Create a solver with limits on positions and milliseconds, and a
+	 *  transposition table of 2^bits entries
+	 */
+	public MateSolver(long maxNodes, long maxMillis, int bits) {
+		this.maxNodes = maxNodes;
+		this.maxNanos = maxMillis * 1000000L;
+		keys = new long[1 << bits];
+		proven = new byte[1 << bits];
+		disproven = new byte[1 << bits];
+		mask = (1 << bits) - 1;
+	}
+
+	/** \returns Number of positions visited by the last Solve() */
+	public long Nodes() { return nodes; }
+
+	/** \returns whether the last Solve() hit the limits before an answer */
+	public boolean Aborted() { return aborted; }
+
+	/** Find the shortest mate of the player to move within n moves.
+	 *  \returns The moves of both sides as in PackedMove, or null if there is
+	 *  no mate by checks within n moves or the search was aborted
+	 */
+	public int[] Solve(ChessGame game, int n) {
+		nodes = 0;
+		aborted = false;
+		deadline = System.nanoTime() + maxNanos;
+		records = new MoveRecord[2 * n + 2];
+		for (int i = 0; i < records.length; ++i) {
+			records[i] = new MoveRecord();
+		}
+		for (int k = 1; k <= n; ++k) {
+			if (Mates(game, k, 0)) {
+				List<Integer> line = new ArrayList<Integer>();
+				Line(game, k, 0, line);
+				int[] moves = new int[line.size()];
+				for (int i = 0; i < moves.length; ++i) {
+					moves[i] = line.get(i);
+				}
+				return moves;
+			}
+			if (aborted) { return null; }
+		}
+		return null;
+	}
+
+	/** \returns Whether the player to move can mate within n moves */
+	private boolean Mates(ChessGame game, int n, int ply) {
+		if (n <= 0) { return false; }
+		if (++nodes >= maxNodes || ((nodes & 1023) == 0 && System.nanoTime() > deadline)) {
+			aborted = true;
+		}
+		if (aborted) { return false; }
+		long key = game.PositionHash();
+		int i = (int)key & mask;
+		if (keys[i] == key) {
+			if (proven[i] != 0 && proven[i] <= n) { return true; }
+			if (disproven[i] >= n) { return false; }
+		}
+		for (int m : Checks(game, ply)) {
+			game.Play(m, records[ply]);
+			boolean mate = Forced(game, n - 1, ply + 1);
+			game.Unplay(records[ply]);
+			if (aborted) { return false; }
+			if (mate) {
+				Store(key, n, true);
+				return true;
+			}
+		}
+		Store(key, n, false);
+		return false;
+	}
+
+	/** \returns Whether every reply of the player to move, who is in check,
+	 *  is mated within n more moves of the opponent
+	 */
+	private boolean Forced(ChessGame game, int n, int ply) {
+		++nodes;
+		MoveList ml = game.LegalMoves();
+		if (ml.Count() == 0) { return ml.Status() == MoveList.CHECKMATE; }
+		if (n <= 0) { return false; }
+		for (int i = 0; i < ml.Count(); ++i) {
+			game.Play(ml.Get(i), records[ply]);
+			boolean mate = Mates(game, n, ply + 1);
+			game.Unplay(records[ply]);
+			if (!mate) { return false; }
+		}
+		return true;
+	}
+
+	/** \returns The moves that give check, those that leave the fewest replies first */
+	private int[] Checks(ChessGame game, int ply) {
+		MoveList ml = game.LegalMoves();
+		int[] moves = new int[ml.Count()];
+		int[] replies = new int[ml.Count()];
+		int n = 0;
+		for (int i = 0; i < ml.Count(); ++i) {
+			int m = ml.Get(i);
+			game.Play(m, records[ply]);
+			boolean check = game.InCheck();
+			int count = (check) ? game.LegalMoves().Count() : 0;
+			game.Unplay(records[ply]);
+			if (!check) { continue; }
+			// Insertion sort by the number of replies
+			int j = n++;
+			for (; j > 0 && replies[j - 1] > count; --j) {
+				moves[j] = moves[j - 1];
+				replies[j] = replies[j - 1];
+			}
+			moves[j] = m;
+			replies[j] = count;
+		}
+		return java.util.Arrays.copyOf(moves, n);
+	}
+
+	/** Remember whether the position with the attacker to move mates in n */
+	private void Store(long key, int n, boolean mate) {
+		int i = (int)key & mask;
+		if (keys[i] != key) {
+			keys[i] = key;
+			proven[i] = 0;
+			disproven[i] = 0;
+		}
+		if (mate) {
+			if (proven[i] == 0 || proven[i] > n) { proven[i] = (byte)n; }
+		} else {
+			if (disproven[i] < n) { disproven[i] = (byte)n; }
+		}
+	}
+
+	/** Play out a mate in n known to exist, with the longest defence */
+	private void Line(ChessGame game, int n, int ply, List<Integer> line) {
+		for (int m : Checks(game, ply)) {
+			game.Play(m, records[ply]);
+			if (Forced(game, n - 1, ply + 1)) {
+				line.add(m);
+				MoveList ml = game.LegalMoves();
+				int best = -1, longest = 0;
+				for (int i = 0; i < ml.Count(); ++i) {
+					game.Play(ml.Get(i), records[ply + 1]);
+					int k = 1;
+					while (k < n - 1 && !Mates(game, k, ply + 2)) { ++k; }
+					game.Unplay(records[ply + 1]);
+					if (k > longest) {
+						longest = k;
+						best = ml.Get(i);
+					}
+				}
+				if (best >= 0) {
+					line.add(best);
+					game.Play(best, records[ply + 1]);
+					Line(game, longest, ply + 2, line);
+					game.Unplay(records[ply + 1]);
+				}
+				game.Unplay(records[ply]);
+				return;
+			}
+			game.Unplay(records[ply]);
+		}
+	}
+
+	/** Solve a puzzle given in Forsyth-Edwards Notation.
+	 *  Usage: java MateSolver [moves] [FEN] [max milliseconds]
+	 */
+	public static void main(String[] args) {
+		int n = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+		String fen = (args.length > 1) ? args[1] : "6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1";
+		long millis = (args.length > 2) ? Long.parseLong(args[2]) : 10000;
+		ChessGame game = ChessGame.FromFen(fen);
+		if (game == null) {
+			System.out.println("invalid position: " + fen);
+			return;
+		}
+		MateSolver solver = new MateSolver(Long.MAX_VALUE, millis, 20);
+		long start = System.nanoTime();
+		int[] line = solver.Solve(game, n);
+		double ms = (System.nanoTime() - start) / 1e6;
+		if (line != null) {
+			StringBuilder sb = new StringBuilder();
+			for (int m : line) {
+				sb.append(' ').append(PackedMove.Input(m)).append(PackedMove.PromoteTo(m)).append(',');
+			}
+			System.out.printf("Mate in %d:%s\n", (line.length + 1) / 2, sb.substring(0, sb.length() - 1));
+		} else if (solver.Aborted()) {
+			System.out.println("Search limit reached");
+		} else {
+			System.out.printf("No mate within %d moves\n", n);
+		}
+		System.out.printf("%d positions in %.1f ms\n", solver.Nodes(), ms);
+	}
+}
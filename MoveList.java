@@ -0,0 +1,39 @@
+/** The lawful moves of a position, packed as in PackedMove, and the status of
+ *  the game at that position. A move list never changes once created so it can
+ *  be shared by different games.
+ */
+class MoveList {
+	// Status of the game
+	public static final int ONGOING = 0;
+	public static final int CHECKMATE = 1;
+	public static final int STALEMATE = 2;
+
+	private final short[] moves;
+	private final int status;
+
+	public MoveList(short[] moves, int status) {
+		this.moves = moves;
+		this.status = status;
+	}
+
+	public int Count() { return moves.length; }
+	public int Get(int i) { return moves[i]; }
+	public int Status() { return status; }
+
+	/** \returns whether the packed move is lawful */
+	public boolean Contains(int move) {
+		for (short m : moves) {
+			if (m == (short)move) { return true; }
+		}
+		return false;
+	}
+
+	/** \returns whether a piece can lawfully move between the two squares */
+	public boolean Contains(Location from, Location to) {
+		int key = ((from.Rank() * 8 + from.File()) << 6) | (to.Rank() * 8 + to.File());
+		for (short m : moves) {
+			if ((m & 0xFFF) == key) { return true; }
+		}
+		return false;
+	}
+}
@@ -0,0 +1,29 @@
+/** Data structure to record a move together with the game state before it.
+ *  This is what ChessGame needs to take back a move or to replay it. The
+ *  records are preallocated by History and overwritten in place, so the
+ *  fields are left open to ChessGame instead of being set one by one.
+ */
+class MoveRecord {
+	// The move
+	Location from;
+	Location to;
+	String promoteTo = "";
+	// The board before the move
+	Piece moved;              //< Piece at `from'
+	Piece capturedAt;         //< Piece at `to', not the one taken en passant
+	Piece enPassantPawn;      //< Piece at the en passant location
+	long hash;                //< Position hash
+	// The game state before the move
+	boolean[] whitePawnMoved = new boolean[8];
+	boolean[] blackPawnMoved = new boolean[8];
+	boolean whiteARookMoved;
+	boolean whiteHRookMoved;
+	boolean whiteKingMoved;
+	boolean blackARookMoved;
+	boolean blackHRookMoved;
+	boolean blackKingMoved;
+	boolean inCheck;
+	Location enPassantLocation;
+	Piece captured;
+	int halfmoveClock;
+}
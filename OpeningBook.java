@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** An opening book in the Polyglot file format.
+ *
+ *  The file is a sorted array of 16-byte big-endian entries: the position
+ *  hash (unsigned 64 bits), the move (16 bits, laid out as PackedMove except
+ *  that castling is the king moving onto its rook), the weight (16 bits) and
+ *  a learn field (32 bits), which BookBuilder uses for the number of games.
+ *  The file is memory-mapped and searched in place, so a probe reads only a
+ *  few pages and allocates nothing. The keys are ChessGame.PolyglotKey(),
+ *  so that books of other programs can be read and the other way round.
+ */
+class OpeningBook {
+	public static final int ENTRY_BYTES = 16;
+
+	private final MappedByteBuffer buf;
+	private final int entries;
+
+	/** Open a book file */
+	public OpeningBook(String file) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			FileChannel ch = f.getChannel();
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("Book too large: " + file);
+			}
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()); // stays valid after closing
+		}
+		entries = buf.capacity() / ENTRY_BYTES;
+	}
+
+	/** \returns Number of entries */
+	public int Size() { return entries; }
+
+	public long Key(int i) { return buf.getLong(i * ENTRY_BYTES); }
+	public int Move(int i) { return buf.getShort(i * ENTRY_BYTES + 8) & 0xFFFF; }
+	public int Weight(int i) { return buf.getShort(i * ENTRY_BYTES + 10) & 0xFFFF; }
+	public int Learn(int i) { return buf.getInt(i * ENTRY_BYTES + 12); }
+
+	/** \returns The index of the first entry of the position, or -1 if none */
+	public int Find(long key) {
+		int lo = 0, hi = entries;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (Long.compareUnsigned(Key(mid), key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo < entries && Key(lo) == key) ? lo : -1;
+	}
+
+	/** \returns The book move of the highest weight as in PackedMove, or -1 if
+	 *  none. A move of weight 0, which a book may keep as lawful but not
+	 *  recommended, is played if it is the only one.
+	 */
+	public int Best(ChessGame game) {
+		long key = game.PolyglotKey();
+		int best = -1, weight = -1;
+		for (int i = Find(key); i >= 0 && i < entries && Key(i) == key; ++i) {
+			if (Weight(i) > weight) {
+				weight = Weight(i);
+				best = Move(i);
+			}
+		}
+		return (best < 0) ? -1 : FromPolyglot(best, game.Board());
+	}
+
+	/** \returns A book move drawn in proportion to the weights as in PackedMove,
+	 *  or -1 if none; r is a random number in [0,1). If all weights are 0, it
+	 *  is the first move as in Best().
+	 */
+	public int Pick(ChessGame game, double r) {
+		long key = game.PolyglotKey();
+		int first = Find(key);
+		if (first < 0) { return -1; }
+		long total = 0;
+		for (int i = first; i < entries && Key(i) == key; ++i) {
+			total += Weight(i);
+		}
+		if (total == 0) { return Best(game); }
+		long x = (long)(r * total);
+		for (int i = first; i < entries && Key(i) == key; ++i) {
+			x -= Weight(i);
+			if (x < 0) { return FromPolyglot(Move(i), game.Board()); }
+		}
+		return -1;
+	}
+
+	/** \returns The move with castling as the king moving onto its rook */
+	public static int ToPolyglot(int m, ChessBoard cb) {
+		int from = (m >> 6) & 63, to = m & 63;
+		if (Character.toLowerCase(cb.GetPieceAt(from / 8, from % 8).GetCode()) == 'k' && Math.abs(from - to) == 2) {
+			return (m & ~63) | (to & ~7) | ((to > from) ? 7 : 0);
+		}
+		return m;
+	}
+
+	/** \returns The move with castling as the king moving two squares */
+	public static int FromPolyglot(int m, ChessBoard cb) {
+		int from = (m >> 6) & 63, to = m & 63;
+		if (Character.toLowerCase(cb.GetPieceAt(from / 8, from % 8).GetCode()) == 'k' &&
+		    from % 8 == 4 && from / 8 == to / 8 && (to % 8 == 0 || to % 8 == 7)) {
+			return (m & ~63) | (to & ~7) | ((to % 8 == 7) ? 6 : 2);
+		}
+		return m;
+	}
+
+	/** Print the book moves of the initial position.
+	 *  Usage: java OpeningBook [book file]
+	 */
+	public static void main(String[] args) throws IOException {
+		OpeningBook book = new OpeningBook((args.length > 0) ? args[0] : "book.bin");
+		ChessGame game = ChessGame.Create();
+		long key = game.PolyglotKey();
+		int first = book.Find(key);
+		final int probes = 1000000;
+		long start = System.nanoTime();
+		for (int i = 0; i < probes; ++i) {
+			book.Find(key + (i & 1)); // a hit and a miss
+		}
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%d entries, %.0f ns per probe\n", book.Size(), (double)nanos / probes);
+		for (int i = first; i >= 0 && i < book.Size() && book.Key(i) == key; ++i) {
+			int m = FromPolyglot(book.Move(i), game.Board());
+			System.out.printf("%s%s weight %d, %d games\n", PackedMove.Input(m), PackedMove.PromoteTo(m),
+			                  book.Weight(i), book.Learn(i));
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/** Moves packed into 16 bits, in the same layout as the Polyglot opening book:
+ *  bits 0-5 are the destination square and bits 6-11 the origin square, each
+ *  numbered as rank*8+file, and bits 12-14 are the promotion piece (0 for no
+ *  promotion, then knight, bishop, rook, queen).
+ */
+class PackedMove {
+	private static final String promotions = " nbrq";
+
+	/** \returns The packed move; promoteTo is one of `q', `r', `b', `n' or ' ' for none */
+	public static short Pack(Location from, Location to, char promoteTo) {
+		int p = Math.max(promotions.indexOf(promoteTo), 0);
+		return (short)((p << 12) | ((from.Rank() * 8 + from.File()) << 6) | (to.Rank() * 8 + to.File()));
+	}
+
+	/** \returns The origin of a packed move */
+	public static Location From(int m) {
+		return new Location((m >> 6) & 7, (m >> 9) & 7);
+	}
+
+	/** \returns The destination of a packed move */
+	public static Location To(int m) {
+		return new Location(m & 7, (m >> 3) & 7);
+	}
+
+	/** \returns The piece to promote to as `q', `r', `b', `n', or an empty string */
+	public static String PromoteTo(int m) {
+		int p = (m >> 12) & 7;
+		return (p == 0) ? "" : promotions.substring(p, p + 1);
+	}
+
+	/** \returns The move as typed in the console, e.g. "e2 e4" */
+	public static String Input(int m) {
+		return Square(m >> 6) + " " + Square(m);
+	}
+
+	/** \returns The packed move of a text like "e2e4" or "b2b1q", or -1 if malformed */
+	public static int Parse(String text) {
+		if (! text.matches("[a-h][1-8][a-h][1-8][qrbn]?")) { return -1; }
+		Location from = new Location(text.charAt(0) - 'a', text.charAt(1) - '1');
+		Location to = new Location(text.charAt(2) - 'a', text.charAt(3) - '1');
+		return Pack(from, to, (text.length() == 5) ? text.charAt(4) : ' ');
+	}
+
+	/** \returns The name of a square, e.g. "e2" */
+	public static String Square(int sq) {
+		return "" + (char)('a' + (sq & 7)) + (char)('1' + ((sq >> 3) & 7));
+	}
+}
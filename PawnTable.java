@@ -0,0 +1,187 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/** Pawn structure evaluation, cached by the pawn hash of the board.
+ *
+ *  The pawn terms, advancement, doubled, isolated, backward and passed pawns,
+ *  depend on nothing but the pawns, which seldom move during a search. So the
+ *  score is kept in a table of 2^bits entries by ChessBoard.PawnHash(), and
+ *  an entry is replaced by the next position that falls on it. The pawns
+ *  sheltering a king move with the king too, so Shield() is not cached; it
+ *  looks at no more than six squares.
+ *
+ *  A pawn structure is new to the table whenever a search first reaches it,
+ *  mostly at its leaves, and a larger table does not help. But the terms of
+ *  the pawns on a file depend on nothing but the pawns of that file and the
+ *  two beside it, and a pawn move changes at most five such windows of
+ *  three files, seldom to one never seen. So on a miss, the score is summed
+ *  by file from a second table keyed by the window itself, and only the
+ *  files of windows missing there are evaluated.
+ *
+ *  The tables last across games and can be shared by the engines of all
+ *  threads without locking, as PerftTable: an entry of the first table is
+ *  the key XOR the score and the score, so a pair mixed by two writers reads
+ *  as a miss; an entry of the second is the window and its score in one long.
+ */
+class PawnTable {
+	private static final int DOUBLED = 10;   //< For each pawn behind another of the same side
+	private static final int ISOLATED = 15;  //< For a pawn with no pawn of the same side on the files next to it
+	private static final int BACKWARD = 8;   //< For a pawn that cannot be supported and cannot safely advance
+	private static final int[] PASSED = {0, 5, 10, 20, 35, 60, 100, 0}; //< By rank, counted from the side's own
+	private static final int SHIELD = 10;    //< For a pawn right in front of the king, half for two squares ahead
+	private static final int ADVANCE = 5;    //< For each square advanced
+	private static final int FILE_BITS = 14; //< Entries of the table by file, 2^14 of 8 bytes
+	private static final int SCORE_BITS = 13; //< Of a file's score in its entry, signed
+
+	final long[] table;  //< Pairs of key ^ score and score
+	final long[] files;  //< Window of three files << SCORE_BITS | score of the middle file
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder fileHits = new LongAdder();
+	private final LongAdder fileMisses = new LongAdder();
+	private final LongAdder evaluated = new LongAdder(); //< Misses that evaluated any file
+
+	/** Create a table of 2^bits entries */
+	public PawnTable(int bits) {
+		table = new long[2 << bits];
+		files = new long[1 << FILE_BITS];
+		mask = (1 << bits) - 1;
+	}
+
+	/** \returns The pawn structure score for white, from the table if possible */
+	public int Score(ChessBoard cb) {
+		long key = cb.PawnHash();
+		int i = ((int)(key ^ (key >>> 32)) & mask) * 2;
+		long check = table[i];
+		long score = table[i + 1];
+		// An empty slot matches a board without pawns, which scores 0 anyway
+		if ((check ^ score) == key) {
+			hits.increment();
+			return (int)score;
+		}
+		misses.increment();
+		long white = cb.Pawns(true), black = cb.Pawns(false);
+		int s = 0;
+		boolean any = false;
+		for (int j = 0; j < 8; ++j) {
+			// Files j-1, j and j+1 as bytes 0, 1 and 2, with none beside the edge
+			long w = ((j == 0) ? white << 8 : white >>> (8 * (j - 1))) & 0xFFFFFF;
+			long b = ((j == 0) ? black << 8 : black >>> (8 * (j - 1))) & 0xFFFFFF;
+			long window = ((long)j << 48) | (b << 24) | w;
+			int f = (int)((window * 0x9E3779B97F4A7C15L) >>> (64 - FILE_BITS));
+			long entry = files[f];
+			// An empty entry matches the window of the a-file without pawns, which scores 0 anyway
+			if ((entry >>> SCORE_BITS) == window) {
+				fileHits.increment();
+				s += (int)(entry << (64 - SCORE_BITS) >> (64 - SCORE_BITS));
+				continue;
+			}
+			fileMisses.increment();
+			any = true;
+			int[] own = {(int)w & 0xFF, (int)(w >> 8) & 0xFF, (int)(w >> 16) & 0xFF};
+			int[] enemy = {(int)b & 0xFF, (int)(b >> 8) & 0xFF, (int)(b >> 16) & 0xFF};
+			int fs = File(own, enemy, true) - File(enemy, own, false);
+			files[f] = (window << SCORE_BITS) | (fs & ((1 << SCORE_BITS) - 1));
+			s += fs;
+		}
+		if (any) { evaluated.increment(); }
+		table[i] = key ^ s;
+		table[i + 1] = s;
+		return s;
+	}
+
+	/** \returns The pawn structure score for white, computed from the board */
+	public static int Evaluate(ChessBoard cb) {
+		int[] white = new int[8]; //< By file, a bit for each rank with a pawn
+		int[] black = new int[8];
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				Piece p = cb.GetPieceAt(i, j);
+				if (p == Piece.WPAWN) { white[j] |= 1 << i; }
+				if (p == Piece.BPAWN) { black[j] |= 1 << i; }
+			}
+		}
+		return Side(white, black, true) - Side(black, white, false);
+	}
+
+	/** \returns Ranks of the file above (white) or below (black) rank i */
+	private static int Ahead(int i, boolean white) {
+		return (white) ? (0xFE << i) & 0xFF : (1 << i) - 1;
+	}
+
+	/** \returns The pawn score of one side, with own and enemy pawns by file */
+	private static int Side(int[] own, int[] enemy, boolean white) {
+		int s = 0;
+		for (int j = 0; j < 8; ++j) {
+			int[] ownWindow = {(j > 0) ? own[j - 1] : 0, own[j], (j < 7) ? own[j + 1] : 0};
+			int[] enemyWindow = {(j > 0) ? enemy[j - 1] : 0, enemy[j], (j < 7) ? enemy[j + 1] : 0};
+			s += File(ownWindow, enemyWindow, white);
+		}
+		return s;
+	}
+
+	/** \returns The pawn score of one side on a file, with own and enemy
+	 *  pawns on the file before it, the file, and the file after it
+	 */
+	private static int File(int[] own, int[] enemy, boolean white) {
+		int s = 0;
+		int forward = (white) ? 1 : -1;
+		int beside = own[0] | own[2];
+		int enemyBeside = enemy[0] | enemy[2];
+		for (int i = 0; i < 8; ++i) {
+			if ((own[1] & (1 << i)) == 0) { continue; }
+			int rank = (white) ? i : 7 - i;
+			s += ADVANCE * (rank - 1);
+			if ((own[1] & Ahead(i, white)) != 0) { s -= DOUBLED; }
+			if (beside == 0) {
+				s -= ISOLATED;
+			} else if ((beside & ~Ahead(i, white)) == 0) {
+				// No pawn beside or behind to support it, and an enemy pawn guards the square in front
+				int guard = i + 2 * forward;
+				if (guard >= 0 && guard < 8 && ((enemyBeside >> guard) & 1) != 0) {
+					s -= BACKWARD;
+				}
+			}
+			if (((enemy[1] | enemyBeside) & Ahead(i, white)) == 0) { s += PASSED[rank]; }
+		}
+		return s;
+	}
+
+	/** \returns The score of the pawns in front of a king at rank i, file j,
+	 *  for the side of the king, if it is on its first two ranks
+	 */
+	public static int Shield(ChessBoard cb, int i, int j) {
+		boolean white = cb.GetPieceAt(i, j).IsWhite();
+		if (((white) ? i : 7 - i) > 1) { return 0; }
+		Piece pawn = (white) ? Piece.WPAWN : Piece.BPAWN;
+		int forward = (white) ? 1 : -1;
+		int s = 0;
+		for (int f = Math.max(j - 1, 0); f <= Math.min(j + 1, 7); ++f) {
+			if (cb.GetPieceAt(i + forward, f) == pawn) {
+				s += SHIELD;
+			} else if (cb.GetPieceAt(i + 2 * forward, f) == pawn) {
+				s += SHIELD / 2;
+			}
+		}
+		return s;
+	}
+
+	/** \returns Number of lookups found in the table */
+	public long Hits() { return hits.sum(); }
+
+	/** \returns Number of lookups not found in the table, which were summed by file */
+	public long Misses() { return misses.sum(); }
+
+	/** \returns Number of lookups that evaluated the pawns of any file */
+	public long Evaluated() { return evaluated.sum(); }
+
+	/** \returns A summary of the lookups, e.g. for a benchmark */
+	public String Stats() {
+		long h = Hits(), m = Misses(), e = Evaluated(), fh = fileHits.sum(), fm = fileMisses.sum();
+		return String.format("%d entries, %d hits, %d misses (%.1f%% hit), %.1f%% of file windows hit; " +
+		                     "%.1f%% of lookups evaluated no pawns",
+		                     table.length / 2, h, m, (h + m == 0) ? 0.0 : 100.0 * h / (h + m),
+		                     (fh + fm == 0) ? 0.0 : 100.0 * fh / (fh + fm),
+		                     (h + m == 0) ? 0.0 : 100.0 * (h + m - e) / (h + m));
+	}
+}
@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Count the positions reachable in a number of moves ("perft").
+ *
+ *  This walks the whole game tree with the move logic of ChessGame, so it is a
+ *  soak test for any change of the rules. The moves of the first plies run as
+ *  separate tasks on a fork/join pool, each on its own copy of the game, and
+ *  the counts of subtrees are remembered in a PerftTable shared by all tasks
+ *  so that a position reached by different move orders is counted once.
+ */
+class Perft extends RecursiveTask<Long> {
+	private static final int SPLIT_PLIES = 2; //< Plies from the root to run as separate tasks
+	private static final int SPLIT_DEPTH = 3; //< Smallest subtree to run as a separate task
+	private static final long serialVersionUID = 1L;
+
+	// Positions with their known counts for depth 1, 2, ..., for "java Perft check"
+	private static final String[] REFERENCE_POSITIONS = {
+		"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", // "Kiwipete"
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+	};
+	private static final long[][] REFERENCE_COUNTS = {
+		{20, 400, 8902, 197281, 4865609},
+		{48, 2039, 97862, 4085603},
+		{14, 191, 2812, 43238, 674624},
+	};
+
+	private final ChessGame game;
+	private final int depth;
+	private final int ply;
+	private final PerftTable table;
+
+	public Perft(ChessGame game, int depth, int ply, PerftTable table) {
+		this.game = game;
+		this.depth = depth;
+		this.ply = ply;
+		this.table = table;
+	}
+
+	@Override
+	protected Long compute() {
+		if (ply >= SPLIT_PLIES || depth < SPLIT_DEPTH) {
+			MoveRecord[] records = new MoveRecord[depth];
+			for (int i = 0; i < depth; ++i) {
+				records[i] = new MoveRecord();
+			}
+			return Count(depth, records);
+		}
+		long hash = game.PositionHash();
+		long n = table.Get(hash, depth);
+		if (n >= 0) { return n; }
+		MoveList ml = game.GenerateMoves();
+		List<Perft> tasks = new ArrayList<Perft>();
+		for (int i = 0; i < ml.Count(); ++i) {
+			ChessGame g = game.Copy();
+			g.Play(ml.Get(i), new MoveRecord());
+			tasks.add(new Perft(g, depth - 1, ply + 1, table));
+		}
+		n = 0;
+		for (Perft t : invokeAll(tasks)) {
+			n += t.join();
+		}
+		table.Put(hash, depth, n);
+		return n;
+	}
+
+	/** Count the positions in this thread, taking back moves instead of copying the game */
+	private long Count(int depth, MoveRecord[] records) {
+		if (depth == 0) { return 1; }
+		long hash = game.PositionHash();
+		long n = table.Get(hash, depth);
+		if (n >= 0) { return n; }
+		MoveList ml = game.GenerateMoves();
+		if (depth == 1) {
+			n = ml.Count();
+		} else {
+			n = 0;
+			for (int i = 0; i < ml.Count(); ++i) {
+				game.Play(ml.Get(i), records[depth - 1]);
+				n += Count(depth - 1, records);
+				game.Unplay(records[depth - 1]);
+			}
+		}
+		table.Put(hash, depth, n);
+		return n;
+	}
+
+	/** \returns The count of positions reachable from the game in the given
+	 *  number of moves, which is at least 1. The count of each first move is
+	 *  printed if verbose.
+	 */
+	static long Run(ChessGame game, int depth, ForkJoinPool pool, PerftTable table, boolean verbose) {
+		MoveList ml = game.GenerateMoves();
+		List<Perft> tasks = new ArrayList<Perft>();
+		for (int i = 0; i < ml.Count(); ++i) {
+			ChessGame g = game.Copy();
+			g.Play(ml.Get(i), new MoveRecord());
+			tasks.add(new Perft(g, depth - 1, 1, table));
+		}
+		for (Perft t : tasks) {
+			pool.execute(t);
+		}
+		long total = 0;
+		for (int i = 0; i < tasks.size(); ++i) {
+			long n = tasks.get(i).join();
+			total += n;
+			if (verbose) {
+				int m = ml.Get(i);
+				System.out.println(PackedMove.Input(m) + PackedMove.PromoteTo(m) + ": " + n);
+			}
+		}
+		return total;
+	}
+
+	/** Count the reference positions to the depths of their known counts
+	 *  \returns whether every count is right
+	 */
+	private static boolean Check(ForkJoinPool pool, PerftTable table) {
+		boolean ok = true;
+		for (int p = 0; p < REFERENCE_POSITIONS.length; ++p) {
+			ChessGame game = ChessGame.FromFen(REFERENCE_POSITIONS[p]);
+			for (int depth = 1; depth <= REFERENCE_COUNTS[p].length; ++depth) {
+				long n = Run(game, depth, pool, table, false);
+				long expected = REFERENCE_COUNTS[p][depth - 1];
+				System.out.printf("%s depth %d: %d%s\n", REFERENCE_POSITIONS[p], depth, n,
+				                  (n == expected) ? "" : " (expected " + expected + ")");
+				ok &= (n == expected);
+			}
+		}
+		return ok;
+	}
+
+	/** Run perft from the initial position, or a position in Forsyth-Edwards
+	 *  Notation, and print the count of each first move; or count the
+	 *  reference positions and exit with status 1 if any count is wrong.
+	 *  Usage: java Perft [depth] [threads] [hash megabytes] [FEN]
+	 *         java Perft check [threads] [hash megabytes]
+	 */
+	public static void main(String[] args) {
+		boolean check = args.length > 0 && args[0].equals("check");
+		int depth = (args.length > 0 && !check) ? Integer.parseInt(args[0]) : 4;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int mb = (args.length > 2) ? Integer.parseInt(args[2]) : 256;
+		if (depth < 1) {
+			System.out.println("usage: java Perft [depth] [threads] [hash megabytes] [FEN], with depth at least 1");
+			System.out.println("       java Perft check [threads] [hash megabytes]");
+			System.exit(1);
+		}
+		ChessGame game = (args.length > 3 && !check) ? ChessGame.FromFen(args[3]) : ChessGame.Create();
+		if (game == null) {
+			System.out.println("invalid position: " + args[3]);
+			System.exit(1);
+		}
+		PerftTable table = new PerftTable(mb);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		if (check) {
+			boolean ok = Check(pool, table);
+			pool.shutdown();
+			System.out.println("Hash table: " + table.Stats());
+			System.out.println(ok ? "All counts are right" : "Some counts are wrong");
+			System.exit(ok ? 0 : 1);
+		}
+		long start = System.nanoTime();
+		long total = Run(game, depth, pool, table, true);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		System.out.printf("Depth %d: %d nodes in %.3f s (%.0f nodes/s) with %d threads\n",
+		                  depth, total, seconds, total / seconds, threads);
+		System.out.println("Hash table: " + table.Stats());
+	}
+}
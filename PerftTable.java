@@ -0,0 +1,56 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/** A hash table of node counts keyed by position hash and depth, for perft.
+ *
+ *  It is shared by all threads without locking. Each entry is a pair of longs,
+ *  the key XOR the count and the count itself. Two threads writing the same
+ *  entry at once may leave a mixed pair behind, which then fails the key check
+ *  and reads as a miss instead of a wrong count. A new entry always replaces
+ *  the old one at the same slot.
+ */
+class PerftTable {
+	private final long[] table;
+	private final int mask;
+	private final LongAdder probes = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+
+	/** Create a table that takes at most the given megabytes of memory */
+	public PerftTable(int mb) {
+		long entries = Math.max((long)mb * 1024 * 1024 / 16, 1);
+		int size = (int)Long.highestOneBit(Math.min(entries, 1 << 29));
+		table = new long[size * 2];
+		mask = size - 1;
+	}
+
+	/** Mix the depth into the position hash */
+	private static long Key(long hash, int depth) {
+		return hash ^ (depth * 0x9E3779B97F4A7C15L);
+	}
+
+	/** \returns The node count of the position to the depth, or -1 if unknown */
+	public long Get(long hash, int depth) {
+		long key = Key(hash, depth);
+		int i = (int)(key & mask) * 2;
+		long check = table[i];
+		long count = table[i + 1];
+		probes.increment();
+		if ((check ^ count) != key) { return -1; }
+		hits.increment();
+		return count;
+	}
+
+	/** Remember the node count of the position to the depth */
+	public void Put(long hash, int depth, long count) {
+		long key = Key(hash, depth);
+		int i = (int)(key & mask) * 2;
+		table[i] = key ^ count;
+		table[i + 1] = count;
+	}
+
+	/** \returns A summary of the table statistics */
+	public String Stats() {
+		long p = probes.sum(), h = hits.sum();
+		return String.format("%d entries, %d probes, %d hits (%.1f%%)",
+		                     table.length / 2, p, h, (p == 0) ? 0.0 : 100.0 * h / p);
+	}
+}
@@ -0,0 +1,81 @@
+/** An immutable snapshot of a chess position.
+ *
+ *  It takes the board as four longs of 4 bits per square, plus the player to
+ *  move, castling, en passant and pawn first-move flags as an int. Since it
+ *  never changes, any number of threads can read it without locking, and two
+ *  positions compare in constant time. ChessGame publishes one after every
+ *  move, see ChessGame.CurrentPosition().
+ */
+final class Position {
+	// Bits of the state
+	public static final int WHITE_MOVE = 1;
+	private static final int CASTLING_SHIFT = 1;   //< 6 bits in the order of Zobrist.WHITE_KING etc.
+	private static final int WHITE_PAWN_SHIFT = 7; //< 8 bits, one per file
+	private static final int BLACK_PAWN_SHIFT = 15;
+	private static final int EN_PASSANT_SHIFT = 23; //< File + 1, or 0 if none
+
+	private static final Piece[] pieces = Piece.values();
+
+	private final long s0, s1, s2, s3;
+	private final int state;
+	private final long hash;
+
+	/** Take a snapshot of the chess board with the state bits and the position hash */
+	public Position(ChessBoard cb, int state, long hash) {
+		s0 = cb.Squares(0);
+		s1 = cb.Squares(1);
+		s2 = cb.Squares(2);
+		s3 = cb.Squares(3);
+		this.state = state;
+		this.hash = hash;
+	}
+
+	/** \returns The state bits from the game state, see ChessGame.Snapshot() */
+	public static int State(boolean whiteMove, boolean[] castling, boolean[] whitePawnMoved,
+	                        boolean[] blackPawnMoved, Location enPassant) {
+		int st = (whiteMove) ? WHITE_MOVE : 0;
+		for (int i = 0; i < 6; ++i) {
+			if (castling[i]) { st |= 1 << (CASTLING_SHIFT + i); }
+		}
+		for (int i = 0; i < 8; ++i) {
+			if (whitePawnMoved[i]) { st |= 1 << (WHITE_PAWN_SHIFT + i); }
+			if (blackPawnMoved[i]) { st |= 1 << (BLACK_PAWN_SHIFT + i); }
+		}
+		if (enPassant != null) { st |= (enPassant.File() + 1) << EN_PASSANT_SHIFT; }
+		return st;
+	}
+
+	/** \returns The piece at rank i, file j */
+	public Piece GetPieceAt(int i, int j) {
+		int sq = i * 8 + j;
+		long s = (sq < 32) ? ((sq < 16) ? s0 : s1) : ((sq < 48) ? s2 : s3);
+		return pieces[(int)(s >>> ((sq & 15) * 4)) & 0xF];
+	}
+
+	public boolean WhiteMove() { return (state & WHITE_MOVE) != 0; }
+
+	/** \returns whether a castling flag, e.g. Zobrist.WHITE_KING, is set */
+	public boolean Moved(int flag) { return (state & (1 << (CASTLING_SHIFT + flag))) != 0; }
+
+	/** \returns whether the pawn that started on the file has moved */
+	public boolean PawnMoved(boolean white, int file) {
+		return (state & (1 << (((white) ? WHITE_PAWN_SHIFT : BLACK_PAWN_SHIFT) + file))) != 0;
+	}
+
+	/** \returns The file of the pawn that may be captured en passant, or -1 */
+	public int EnPassantFile() { return ((state >> EN_PASSANT_SHIFT) & 0xF) - 1; }
+
+	/** \returns The position hash, as ChessGame.PositionHash() */
+	public long Hash() { return hash; }
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Position)) { return false; }
+		Position p = (Position)o;
+		return hash == p.hash && state == p.state &&
+		       s0 == p.s0 && s1 == p.s1 && s2 == p.s2 && s3 == p.s3;
+	}
+
+	@Override
+	public int hashCode() { return (int)(hash ^ (hash >>> 32)); }
+}
@@ -0,0 +1,110 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A bounded cache of anything about a position, keyed by position hash,
+ *  such as the lawful moves or the evaluation.
+ *
+ *  It can be shared by any number of games across threads. The entries are
+ *  spread over a number of segments, each an LRU map guarded by its own lock,
+ *  so that lookups of different positions seldom wait for each other. The
+ *  least recently used entry of a segment is evicted when it is full.
+ */
+class PositionCache<V> {
+	private static final int SEGMENTS = 16;
+	// Rough size of an entry of lawful moves: map node, boxed key, move list and ~35 moves
+	private static final int ENTRY_BYTES = 200;
+
+	private final LinkedHashMap<Long, V>[] segments;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/** Create a cache to hold about the given number of positions */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PositionCache(int entries) {
+		final int limit = Math.max(entries / SEGMENTS, 1);
+		segments = new LinkedHashMap[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; ++i) {
+			segments[i] = new LinkedHashMap<Long, V>(limit * 4 / 3 + 1, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+					if (size() <= limit) { return false; }
+					evictions.increment();
+					return true;
+				}
+			};
+		}
+	}
+
+	/** \returns A cache of lawful moves that takes about the given megabytes of memory */
+	public static PositionCache<MoveList> OfMegabytes(int mb) {
+		return new PositionCache<MoveList>((int)Math.min((long)mb * 1024 * 1024 / ENTRY_BYTES, Integer.MAX_VALUE));
+	}
+
+	private LinkedHashMap<Long, V> Segment(long hash) {
+		return segments[(int)(hash >>> 60) & (SEGMENTS - 1)];
+	}
+
+	/** \returns The value of the position, or null if it is not cached */
+	public V Get(long hash) {
+		LinkedHashMap<Long, V> s = Segment(hash);
+		V v;
+		synchronized (s) {
+			v = s.get(hash);
+		}
+		if (v == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return v;
+	}
+
+	/** Remember the value of a position */
+	public void Put(long hash, V v) {
+		LinkedHashMap<Long, V> s = Segment(hash);
+		synchronized (s) {
+			s.put(hash, v);
+		}
+	}
+
+	/** Remember the value of a position unless it is cached already.
+	 *  \returns The value cached already, or null if the given one is taken
+	 */
+	public V PutIfAbsent(long hash, V v) {
+		LinkedHashMap<Long, V> s = Segment(hash);
+		V old;
+		synchronized (s) {
+			old = s.putIfAbsent(hash, v);
+		}
+		if (old == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return old;
+	}
+
+	/** \returns Number of positions in the cache */
+	public int Size() {
+		int n = 0;
+		for (LinkedHashMap<Long, V> s : segments) {
+			synchronized (s) {
+				n += s.size();
+			}
+		}
+		return n;
+	}
+
+	public long Hits() { return hits.sum(); }
+	public long Misses() { return misses.sum(); }
+	public long Evictions() { return evictions.sum(); }
+
+	/** \returns A summary of the cache statistics */
+	public String Stats() {
+		long h = Hits(), m = Misses();
+		return String.format("%d positions, %d hits, %d misses (%.1f%% hit), %d evictions",
+		                     Size(), h, m, (h + m == 0) ? 0.0 : 100.0 * h / (h + m), Evictions());
+	}
+}
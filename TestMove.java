@@ -1,4 +1,6 @@
-/** Data structure to record a move. This class is used in unit test. */
+/** Data structure to record a move. This class is used in unit test and to
+ *  record the games played by the program.
+ */
 class TestMove {
 	private String input;
 	private boolean whiteNext;
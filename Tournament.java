@@ -0,0 +1,194 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Self-play between two engine settings.
+ *
+ *  Games are played on a pool of worker threads, each game on its own
+ *  ChessGame and engines. Every game opens with a few random moves drawn from
+ *  a seed, and each opening is played twice with the colours swapped. A game
+ *  ends on checkmate, stalemate, threefold repetition or the fifty-move rule,
+ *  and is written to the output file as soon as it finishes, one line per
+ *  game. Since the engines are deterministic, a game can be replayed exactly
+ *  from its seed.
+ */
+class Tournament {
+	private static final int RANDOM_PLIES = 4; //< Random moves at the start of a game
+
+	private final int depthA;
+	private final int depthB;
+	private final OpeningBook book;
+	private final PawnTable pawns = new PawnTable(Engine.PAWN_TABLE_BITS); //< Shared by all engines
+	private final ThreadLocal<Engine[]> engines; //< Engines A and B of each worker, kept across games
+	private BufferedWriter out;
+	// Results from the view of engine A
+	private int wins;
+	private int draws;
+	private int losses;
+
+	public Tournament(int depthA, int depthB, OpeningBook book) {
+		this.depthA = depthA;
+		this.depthB = depthB;
+		this.book = book;
+		engines = ThreadLocal.withInitial(() -> new Engine[] {NewEngine(depthA), NewEngine(depthB)});
+	}
+
+	/** \returns An engine of the tournament, playing from its book and sharing its pawn table */
+	private Engine NewEngine(int depth) {
+		Engine e = new Engine(depth, pawns);
+		e.SetBook(book);
+		return e;
+	}
+
+	/** Play a game between two engines, which play from their books after the
+	 *  random moves if they have one, drawing book moves by weight from the
+	 *  seed. The engines may be reused for other games.
+	 *  \returns 1 if white won, -1 if black won, 0 if drawn; the moves are
+	 *  appended to the record and the reason is in reason[0]
+	 */
+	public static int PlayGame(long seed, Engine white, Engine black, List<TestMove> record, String[] reason) {
+		ChessGame game = ChessGame.Create();
+		Random random = new Random(seed);
+		// Apart from the random moves, so that games without a book stay the same
+		white.SetBookSeed(2 * seed);
+		black.SetBookSeed(2 * seed + 1);
+		for (int ply = 0; ; ++ply) {
+			MoveList ml = game.LegalMoves();
+			if (ml.Status() == MoveList.CHECKMATE) {
+				reason[0] = "checkmate";
+				return (game.WhiteMove()) ? -1 : 1;
+			}
+			String draw = game.Draw();
+			if (draw != null) {
+				reason[0] = draw;
+				return 0;
+			}
+			int m;
+			if (ply < RANDOM_PLIES) {
+				m = ml.Get(random.nextInt(ml.Count()));
+			} else {
+				m = ((game.WhiteMove()) ? white : black).BestMove(game);
+			}
+			game.Play(m);
+			record.add(new TestMove(PackedMove.Input(m), PackedMove.PromoteTo(m),
+			                        game.WhiteMove(), game.InCheck(), game.Captured()));
+		}
+	}
+
+	/** \returns The moves of a game, e.g. "e2e4 e7e5 b2b1q" */
+	static String Moves(List<TestMove> record) {
+		StringBuilder sb = new StringBuilder();
+		for (TestMove t : record) {
+			if (sb.length() > 0) { sb.append(' '); }
+			sb.append(t.Input().replace(" ", "")).append(t.PromoteTo());
+		}
+		return sb.toString();
+	}
+
+	/** Play game number i, with engine A as white in even games */
+	private void Game(int i, long seed) {
+		boolean aWhite = (i % 2 == 0);
+		long gameSeed = seed + i / 2; // Both colours play the same opening
+		List<TestMove> record = new ArrayList<TestMove>();
+		String[] reason = new String[1];
+		Engine[] ab = engines.get();
+		int result = PlayGame(gameSeed, aWhite ? ab[0] : ab[1], aWhite ? ab[1] : ab[0], record, reason);
+		String line = String.format("%d\t%d\tdepth%d\tdepth%d\t%s\t%s\t%s",
+		                            i, gameSeed, aWhite ? depthA : depthB, aWhite ? depthB : depthA,
+		                            (result > 0) ? "1-0" : (result < 0) ? "0-1" : "1/2-1/2",
+		                            reason[0], Moves(record));
+		synchronized (this) {
+			if (result == 0) {
+				++draws;
+			} else if ((result > 0) == aWhite) {
+				++wins;
+			} else {
+				++losses;
+			}
+			try {
+				out.write(line);
+				out.newLine();
+				out.flush();
+			} catch (IOException e) {
+				System.err.println("Cannot write game " + i + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/** Play the games on the given number of threads and write them to a file */
+	public void Run(int games, int threads, long seed, String file) throws IOException, InterruptedException {
+		out = new BufferedWriter(new FileWriter(file));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int i = 0; i < games; ++i) {
+			final int n = i;
+			pool.execute(() -> Game(n, seed));
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.close();
+		System.out.printf("%d games in %.1f s (%.2f games/s) with %d threads\n", games, seconds, games / seconds, threads);
+		System.out.printf("depth%d vs depth%d: +%d =%d -%d\n", depthA, depthB, wins, draws, losses);
+		System.out.println("Elo difference: " + Elo(wins, draws, losses));
+		System.out.println("pawn table: " + pawns.Stats());
+	}
+
+	/** \returns The Elo difference of the score, with a 95% confidence interval */
+	public static String Elo(int wins, int draws, int losses) {
+		int n = wins + draws + losses;
+		if (n == 0) { return "no games"; }
+		double score = (wins + 0.5 * draws) / n;
+		// Standard deviation of the mean score per game
+		double var = (wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2) + losses * Math.pow(score, 2)) / n;
+		double margin = 1.96 * Math.sqrt(var / n);
+		double elo = Elo(score);
+		return String.format("%+.0f (%+.0f to %+.0f)", elo, Elo(score - margin), Elo(score + margin));
+	}
+
+	/** \returns The Elo difference of the expected score */
+	static double Elo(double score) {
+		if (score <= 0) { return Double.NEGATIVE_INFINITY; }
+		if (score >= 1) { return Double.POSITIVE_INFINITY; }
+		return 400 * Math.log10(score / (1 - score));
+	}
+
+	/** Play games between two engine depths, or replay a game from its seed.
+	 *  Usage: java Tournament [games] [depth A] [depth B] [threads] [seed] [file] [book]
+	 *     or: java Tournament replay [seed] [white depth] [black depth] [book]
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length > 0 && args[0].equals("replay")) {
+			long seed = (args.length > 1) ? Long.parseLong(args[1]) : 1;
+			int white = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+			int black = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+			OpeningBook book = (args.length > 4) ? new OpeningBook(args[4]) : null;
+			Tournament replay = new Tournament(white, black, book);
+			List<TestMove> record = new ArrayList<TestMove>();
+			String[] reason = new String[1];
+			int result = PlayGame(seed, replay.NewEngine(white), replay.NewEngine(black), record, reason);
+			for (int i = 0; i < record.size(); ++i) {
+				TestMove t = record.get(i);
+				System.out.printf("%3d%s %s%s%s%s\n", i / 2 + 1, (i % 2 == 0) ? "." : "...", t.Input(), t.PromoteTo(),
+				                  t.Check() ? " check" : "",
+				                  (t.Captured() != Piece.NOTHING) ? " captured " + t.Captured().GetCode() : "");
+			}
+			System.out.println(((result > 0) ? "1-0" : (result < 0) ? "0-1" : "1/2-1/2") + " by " + reason[0]);
+			return;
+		}
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+		int depthA = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+		int depthB = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 4) ? Long.parseLong(args[4]) : 1;
+		String file = (args.length > 5) ? args[5] : "games.txt";
+		OpeningBook book = (args.length > 6) ? new OpeningBook(args[6]) : null;
+		new Tournament(depthA, depthB, book).Run(games, threads, seed, file);
+	}
+}
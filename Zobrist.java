@@ -0,0 +1,80 @@
+/** Zobrist keys for hashing chess positions.
+ *
+ *  A position hash is the XOR of one key for each piece on its square, plus
+ *  keys for the side to move, the castling rights, and the file of a pawn that
+ *  may be captured en passant. A castling right is hashed rather than the
+ *  king and rook moved flags it derives from, so that a rook moving away and
+ *  back after its king has moved makes the same position. The keys are drawn from a fixed seed so that
+ *  the same position always hashes to the same value across runs.
+ */
+class Zobrist {
+	private static final long[][] pieceKeys = new long[13][64]; //< Indexed by Piece ordinal, then square
+	private static final long[] castlingKeys = new long[4];
+	private static final long[] enPassantKeys = new long[8];
+	private static final long whiteMoveKey;
+
+	// Castling flags, in the same order as the state variables in ChessGame.
+	// They are kept in Position, but hashed as the castling rights below.
+	public static final int WHITE_KING = 0;
+	public static final int WHITE_AROOK = 1;
+	public static final int WHITE_HROOK = 2;
+	public static final int BLACK_KING = 3;
+	public static final int BLACK_AROOK = 4;
+	public static final int BLACK_HROOK = 5;
+
+	// Castling rights
+	public static final int WHITE_SHORT = 0;
+	public static final int WHITE_LONG = 1;
+	public static final int BLACK_SHORT = 2;
+	public static final int BLACK_LONG = 3;
+
+	private static long seed = 0x2545F4914F6CDD1DL;
+
+	/** SplitMix64 generator, good enough to fill the key tables */
+	private static long Next() {
+		long z = (seed += 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	static {
+		// Piece.NOTHING keeps all-zero keys so that empty squares hash to nothing
+		for (int p = 1; p < pieceKeys.length; ++p) {
+			for (int sq = 0; sq < 64; ++sq) {
+				pieceKeys[p][sq] = Next();
+			}
+		}
+		for (int i = 0; i < castlingKeys.length; ++i) {
+			castlingKeys[i] = Next();
+		}
+		for (int i = 0; i < 8; ++i) {
+			enPassantKeys[i] = Next();
+		}
+		whiteMoveKey = Next();
+	}
+
+	/** \returns The key of a piece on the square at rank i, file j */
+	public static long PieceKey(Piece p, int i, int j) {
+		return pieceKeys[p.ordinal()][i * 8 + j];
+	}
+
+	/** \returns The key of a castling right, e.g. Zobrist.WHITE_SHORT */
+	public static long CastlingKey(int right) { return castlingKeys[right]; }
+
+	/** \returns The key of an en passant capture on the specified file */
+	public static long EnPassantKey(int file) { return enPassantKeys[file]; }
+
+	/** \returns The key for white to move */
+	public static long WhiteMoveKey() { return whiteMoveKey; }
+
+	/** \returns A key of a move as in PackedMove, to hash a move together
+	 *  with the position it is played from
+	 */
+	public static long MoveKey(int move) {
+		long z = (move + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}